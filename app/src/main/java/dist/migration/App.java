@@ -6,6 +6,7 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import dist.migration.dtos.EventType;
 import dist.migration.dtos.InputDto;
+import dist.migration.factories.MongoClientFactory;
 import dist.migration.handlers.MongoMigrationHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +24,7 @@ public class App {
         LocalContext localContext = new LocalContext();
         String result = mongoMigrationHandlerLocal.handleRequest(testInput, localContext);
         log.info("Migration process completed in local testing with {}",result);
+        MongoClientFactory.closeAll();
     }
 }
 
@@ -82,8 +84,8 @@ class LocalContext implements Context {
 
     @Override
     public int getMemoryLimitInMB() {
-        // TODO Auto-generated method stub
-        return 10;
+        // The local JVM's heap stands in for the function's memory
+        return (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
     }
 
     @Override
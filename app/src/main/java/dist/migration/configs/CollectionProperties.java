@@ -0,0 +1,46 @@
+package dist.migration.configs;
+
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+
+@Data
+public class CollectionProperties {
+  // Extended JSON query and projection pushed down to the source find, e.g. {"tenantId": "acme"}.
+  private String filter;
+  private String projection;
+
+  // Applied to every document before it is written, in this order: drop, rename, set.
+  private List<String> drop;
+  private Map<String, String> rename;
+  private Map<String, Object> set;
+
+  /** This collection's settings with every non-null field of {@code overrides} taking priority. */
+  public CollectionProperties overriddenBy(CollectionProperties overrides) {
+    CollectionProperties merged = new CollectionProperties();
+    merged.setFilter(filter);
+    merged.setProjection(projection);
+    merged.setDrop(drop);
+    merged.setRename(rename);
+    merged.setSet(set);
+    if (overrides == null) {
+      return merged;
+    }
+    if (overrides.getFilter() != null) {
+      merged.setFilter(overrides.getFilter());
+    }
+    if (overrides.getProjection() != null) {
+      merged.setProjection(overrides.getProjection());
+    }
+    if (overrides.getDrop() != null) {
+      merged.setDrop(overrides.getDrop());
+    }
+    if (overrides.getRename() != null) {
+      merged.setRename(overrides.getRename());
+    }
+    if (overrides.getSet() != null) {
+      merged.setSet(overrides.getSet());
+    }
+    return merged;
+  }
+}
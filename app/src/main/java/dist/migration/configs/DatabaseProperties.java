@@ -1,5 +1,7 @@
 package dist.migration.configs;
 
+import java.util.List;
+import java.util.Map;
 import lombok.Data;
 
 @Data
@@ -13,4 +15,102 @@ public class DatabaseProperties {
   private String destinationDatabase;
   private String destinationUserNameArn;
   private String destinationUserPasswordArn;
+
+  // Driver settings applied to both the source and destination clients; unset keeps defaults.
+  private Integer minPoolSize;
+  private Integer maxPoolSize;
+  private Integer maxConnecting;
+  private Integer maxWaitTimeMs;
+  private Integer socketConnectTimeoutMs;
+  private Integer socketReadTimeoutMs;
+  // e.g. secondaryPreferred, with tag sets such as [{nodeType: ANALYTICS}]
+  private String readPreference;
+  private List<Map<String, String>> readPreferenceTags;
+  // Cursor settings for the source scans.
+  private Integer findBatchSize;
+  private boolean noCursorTimeout;
+
+  // Wire compressors per endpoint in order of preference: zstd, snappy, zlib. Empty disables.
+  private List<String> sourceCompressors = List.of();
+  private List<String> destinationCompressors = List.of();
+
+  // Per-collection filter, projection and transforms, keyed by collection name.
+  private Map<String, CollectionProperties> collections;
+
+  // Number of concurrent _id range cursors used to copy a single collection.
+  private int partitions = 1;
+
+  // Number of collections copied at the same time by migrateDatabase.
+  private int collectionConcurrency = 2;
+
+  // Copy documents as RawBsonDocument bytes instead of decoding them into Document.
+  private boolean rawBsonPassThrough;
+
+  // A batch is sent as soon as either ceiling would be exceeded.
+  private int maxBatchDocuments = 400;
+  private long maxBatchBytes = 16L * 1024 * 1024;
+
+  // bulkLoad writes unordered, bypasses validation and uses the relaxed write concern below,
+  // followed by a majority, journaled barrier write once the copy completes.
+  private WriteProfile writeProfile = WriteProfile.standard;
+  private String bulkLoadWriteConcern = "1";
+  private boolean bulkLoadJournal;
+  // skipDuplicates or upsert let executeMigration be re-run over a partially copied collection.
+  private WriteMode writeMode = WriteMode.insert;
+
+  // Record per-partition progress in the destination so executeMigration resumes after failures.
+  private boolean checkpointing;
+
+  // Stop reading this long before the Lambda deadline to drain writes and return progress.
+  private long timeBudgetReserveMillis = 60_000;
+
+  // Record the source operation time before copying so tailChanges can replay later writes.
+  private boolean changeStreams;
+  private int changeStreamBatchSize = 500;
+  private long changeStreamIdleMillis = 10_000;
+  // Longest a partial batch of change events waits before it is applied.
+  private long changeStreamFlushMillis = 1_000;
+
+  // Source read throttle shared by all cursors of a run, 0 for unlimited.
+  private long maxReadDocumentsPerSecond;
+  private long maxReadBytesPerSecond;
+  // Halve the read rate while a source ping takes longer than this, 0 disables the backoff.
+  private long sourceLatencyThresholdMillis;
+  private long sourceLatencyProbeMillis = 5_000;
+
+  // CloudWatch Embedded Metric Format reports while a copy runs; 0 only reports at the end.
+  private long metricsIntervalMillis = 60_000;
+  private String metricsNamespace = "DistMigration";
+
+  // verifyCollection: _id ranges digested on both clusters, ranges in flight, sampled mode size.
+  private int verifyPartitions = 16;
+  private int verifyConcurrency = 4;
+  private int verifySampleSize = 1000;
+
+  // Build secondary indexes after the data is loaded instead of before.
+  private boolean deferIndexBuilds;
+
+  // Copy with $merge on the server when source and destination are the same deployment.
+  private boolean serverSideCopy;
+  private long serverSideProgressMillis = 10_000;
+
+  // exportCollection/importCollection: archive root (e.g. an EFS mount), uncompressed size of a
+  // segment, direct buffer size and gzip level.
+  private String archiveDirectory = "/tmp/archive";
+  private long archiveSegmentBytes = 256L * 1024 * 1024;
+  private int archiveBufferBytes = 8 * 1024 * 1024;
+  private int archiveCompressionLevel = 1;
+
+  // Batches read ahead of the destination beyond spillMemoryBytes go to segment files under
+  // spillDirectory, per cursor; 0 disables the buffer. Reads pause once all cursors together
+  // have spillMaxDiskBytes on disk, kept under Lambda's default 512 MB of /tmp.
+  private long spillMemoryBytes;
+  private String spillDirectory = "/tmp/spill";
+  private long spillSegmentBytes = 64L * 1024 * 1024;
+  private long spillMaxDiskBytes = 384L * 1024 * 1024;
+
+  // Cap on bytes of batches read but not yet written: memoryBudgetBytes when set, otherwise this
+  // fraction of the function's memory. Decoded documents take several times their BSON size.
+  private long memoryBudgetBytes;
+  private double memoryBudgetFraction = 0.25;
 }
@@ -0,0 +1,11 @@
+package dist.migration.configs;
+
+/** How batches are written, and so whether re-running a partial copy is safe. */
+public enum WriteMode {
+  // insertMany; a document already in the destination fails the copy.
+  insert,
+  // Unordered insertMany that counts duplicate _id errors as skipped documents.
+  skipDuplicates,
+  // Unordered bulkWrite of replaceOne upserts keyed on _id.
+  upsert;
+}
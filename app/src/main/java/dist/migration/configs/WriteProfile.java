@@ -0,0 +1,6 @@
+package dist.migration.configs;
+
+public enum WriteProfile {
+  standard,
+  bulkLoad;
+}
@@ -8,5 +8,10 @@ public enum EventType {
     dropCollection,
     checkConnectivity,
     getCollectionSize,
-    executeMigration;
+    executeMigration,
+    migrateDatabase,
+    tailChanges,
+    verifyCollection,
+    exportCollection,
+    importCollection;
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package dist.migration.dtos;
 
+import dist.migration.configs.CollectionProperties;
+import java.util.List;
 import lombok.Data;
 
 @Data
@@ -7,5 +9,12 @@ public class InputDto {
   private String env;
   private String dataBaseName;
   private String collectionName;
+  // Collection names or * / ? globs for migrateDatabase; empty means every collection.
+  private List<String> collectionNames;
   private EventType eventType;
+  // executeMigration and exportCollection: filter, projection and transforms overriding the
+  // configured ones.
+  private CollectionProperties collectionOptions;
+  // verifyCollection compares a random sample instead of every _id range.
+  private boolean sampled;
 }
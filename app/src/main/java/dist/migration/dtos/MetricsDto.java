@@ -0,0 +1,22 @@
+package dist.migration.dtos;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class MetricsDto {
+  private Double documentsPerSecond;
+  private Double bytesPerSecond;
+  private Double readBatchP50Millis;
+  private Double readBatchP99Millis;
+  private Double writeBatchP50Millis;
+  private Double writeBatchP99Millis;
+  // Cursor wait well above write wait means the source limits the copy, and vice versa.
+  private Long cursorWaitMillis;
+  private Long writeWaitMillis;
+  private Integer peakInFlightWrites;
+  // Bytes of batches read but not yet written, against the memory governor's budget.
+  private Long peakBufferedBytes;
+  private Long averageBufferedBytes;
+}
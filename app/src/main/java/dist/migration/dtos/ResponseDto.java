@@ -2,6 +2,7 @@ package dist.migration.dtos;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.google.gson.Gson;
+import dist.migration.services.VerificationReport;
 import lombok.Builder;
 import lombok.Getter;
 
@@ -13,6 +14,18 @@ public class ResponseDto {
   private String collectionName;
   private EventType eventType;
   private String result;
+  private Boolean completed;
+  private String continuationToken;
+  private Long documentsMigrated;
+  private Long documentsSkipped;
+  private Long bytesMigrated;
+  private Long lagSeconds;
+  private Long firstBatchMillis;
+  private Long sourceWireBytes;
+  private Long destinationWireBytes;
+  private Double compressionRatio;
+  private MetricsDto metrics;
+  private VerificationReport verification;
 
   @Override
   public String toString() {
@@ -0,0 +1,146 @@
+package dist.migration.factories;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.AsyncCompletionHandler;
+import com.mongodb.connection.SocketSettings;
+import com.mongodb.connection.SslSettings;
+import com.mongodb.connection.Stream;
+import com.mongodb.connection.StreamFactory;
+import com.mongodb.connection.StreamFactoryFactory;
+import dist.migration.metrics.WireCounter;
+import java.io.IOException;
+import java.util.List;
+import org.bson.ByteBuf;
+
+/**
+ * Wraps the driver's socket streams to count the bytes that actually cross the network, which is
+ * what wire compression saves.
+ */
+@SuppressWarnings("deprecation")
+class CountingStreamFactoryFactory implements StreamFactoryFactory {
+
+  private final StreamFactoryFactory delegate;
+  private final WireCounter counter;
+
+  CountingStreamFactoryFactory(StreamFactoryFactory delegate, WireCounter counter) {
+    this.delegate = delegate;
+    this.counter = counter;
+  }
+
+  @Override
+  public StreamFactory create(SocketSettings socketSettings, SslSettings sslSettings) {
+    StreamFactory streams = delegate.create(socketSettings, sslSettings);
+    return serverAddress -> new CountingStream(streams.create(serverAddress), counter);
+  }
+
+  private static long remaining(List<ByteBuf> buffers) {
+    long bytes = 0;
+    for (ByteBuf buffer : buffers) {
+      bytes += buffer.remaining();
+    }
+    return bytes;
+  }
+
+  private static class CountingStream implements Stream {
+    private final Stream stream;
+    private final WireCounter counter;
+
+    CountingStream(Stream stream, WireCounter counter) {
+      this.stream = stream;
+      this.counter = counter;
+    }
+
+    @Override
+    public void open() throws IOException {
+      stream.open();
+    }
+
+    @Override
+    public void openAsync(AsyncCompletionHandler<Void> handler) {
+      stream.openAsync(handler);
+    }
+
+    @Override
+    public void write(List<ByteBuf> buffers) throws IOException {
+      long bytes = remaining(buffers);
+      stream.write(buffers);
+      counter.sent(bytes);
+    }
+
+    @Override
+    public ByteBuf read(int numBytes) throws IOException {
+      ByteBuf buffer = stream.read(numBytes);
+      counter.received(numBytes);
+      return buffer;
+    }
+
+    @Override
+    public boolean supportsAdditionalTimeout() {
+      return stream.supportsAdditionalTimeout();
+    }
+
+    @Override
+    public ByteBuf read(int numBytes, int additionalTimeout) throws IOException {
+      ByteBuf buffer = stream.read(numBytes, additionalTimeout);
+      counter.received(numBytes);
+      return buffer;
+    }
+
+    @Override
+    public void writeAsync(List<ByteBuf> buffers, AsyncCompletionHandler<Void> handler) {
+      long bytes = remaining(buffers);
+      stream.writeAsync(
+          buffers,
+          new AsyncCompletionHandler<>() {
+            @Override
+            public void completed(Void result) {
+              counter.sent(bytes);
+              handler.completed(result);
+            }
+
+            @Override
+            public void failed(Throwable t) {
+              handler.failed(t);
+            }
+          });
+    }
+
+    @Override
+    public void readAsync(int numBytes, AsyncCompletionHandler<ByteBuf> handler) {
+      stream.readAsync(
+          numBytes,
+          new AsyncCompletionHandler<>() {
+            @Override
+            public void completed(ByteBuf result) {
+              counter.received(numBytes);
+              handler.completed(result);
+            }
+
+            @Override
+            public void failed(Throwable t) {
+              handler.failed(t);
+            }
+          });
+    }
+
+    @Override
+    public ServerAddress getAddress() {
+      return stream.getAddress();
+    }
+
+    @Override
+    public void close() {
+      stream.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+      return stream.isClosed();
+    }
+
+    @Override
+    public ByteBuf getBuffer(int size) {
+      return stream.getBuffer(size);
+    }
+  }
+}
@@ -1,16 +1,222 @@
 package dist.migration.factories;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.Tag;
+import com.mongodb.TagSet;
+import com.mongodb.connection.AsynchronousSocketChannelStreamFactoryFactory;
+import com.mongodb.connection.StreamFactoryFactory;
+import com.mongodb.connection.TlsChannelStreamFactoryFactory;
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoClients;
+import dist.migration.configs.DatabaseProperties;
+import dist.migration.metrics.WireCounter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class MongoClientFactory {
 
+    // Clients outlive a Lambda invocation so warm starts skip the handshakes and pool warm-up.
+    // The key leaves out the password; the entry keeps its hash to spot rotated credentials.
+    private static final Map<List<Object>, CachedClient> CLIENTS = new ConcurrentHashMap<>();
+    private static final Map<MongoClient, WireCounter> WIRE_COUNTERS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the cached client for this endpoint, credentials and settings, creating it on first
+     * use. A client cached with a different password is closed and replaced. The client must not
+     * be closed by the caller.
+     */
+    public static MongoClient getOrCreateClient(
+            String host,
+            String username,
+            String password,
+            DatabaseProperties properties,
+            List<String> compressors) {
+        List<Object> key = clientKey(host, username, properties, compressors);
+        String passwordHash = passwordHash(password);
+        CachedClient cached = CLIENTS.compute(key, (k, current) -> {
+            if (current != null && current.passwordHash.equals(passwordHash)) {
+                return current;
+            }
+            if (current != null) {
+                WIRE_COUNTERS.remove(current.client);
+                current.client.close();
+            }
+            WireCounter wireCounter = new WireCounter();
+            MongoClient client =
+                    createClient(host, username, password, properties, compressors, wireCounter);
+            WIRE_COUNTERS.put(client, wireCounter);
+            return new CachedClient(passwordHash, client);
+        });
+        return cached.client;
+    }
+
+    /** Cumulative socket traffic of a client created by {@link #getOrCreateClient}. */
+    public static WireCounter getWireCounter(MongoClient client) {
+        return WIRE_COUNTERS.getOrDefault(client, new WireCounter());
+    }
+
+    public static void closeAll() {
+        CLIENTS.values().forEach(cached -> cached.client.close());
+        CLIENTS.clear();
+        WIRE_COUNTERS.clear();
+    }
+
+    static List<Object> clientKey(
+            String host, String username, DatabaseProperties properties, List<String> compressors) {
+        return Arrays.asList(
+                host,
+                username,
+                compressors,
+                properties.getMinPoolSize(),
+                properties.getMaxPoolSize(),
+                properties.getMaxConnecting(),
+                properties.getMaxWaitTimeMs(),
+                properties.getSocketConnectTimeoutMs(),
+                properties.getSocketReadTimeoutMs(),
+                properties.getReadPreference(),
+                properties.getReadPreferenceTags());
+    }
+
+    // Only a digest of the password is kept in the cache.
+    static String passwordHash(String password) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
     public static MongoClient createClient(String host, String username, String password) {
+        return createClient(host, username, password, new DatabaseProperties());
+    }
+
+    public static MongoClient createClient(
+            String host, String username, String password, DatabaseProperties properties) {
+        return createClient(host, username, password, properties, List.of(), null);
+    }
+
+    /**
+     * @param compressors wire compressors in order of preference (zstd, snappy, zlib); the server
+     *     picks the first one it also supports
+     * @param wireCounter receives the bytes sent and received on the sockets, or null
+     */
+    public static MongoClient createClient(
+            String host,
+            String username,
+            String password,
+            DatabaseProperties properties,
+            List<String> compressors,
+            WireCounter wireCounter) {
         String credentials = "";
         if(!(username.isBlank() || password.isBlank())) { 
             credentials = username + ":" + password + "@";
         }
         String uri = "mongodb://" + credentials + host;
-        return MongoClients.create(uri);
+        MongoClientSettings settings = createSettings(uri, properties, compressors);
+        if (wireCounter != null) {
+            settings = countWireBytes(settings, wireCounter);
+        }
+        return MongoClients.create(settings);
+    }
+
+    // Unset properties keep the driver defaults (or whatever the connection string specifies).
+    static MongoClientSettings createSettings(
+            String uri, DatabaseProperties properties, List<String> compressors) {
+        MongoClientSettings.Builder builder =
+                MongoClientSettings.builder().applyConnectionString(new ConnectionString(uri));
+        builder.applyToConnectionPoolSettings(pool -> {
+            if (properties.getMinPoolSize() != null) {
+                pool.minSize(properties.getMinPoolSize());
+            }
+            if (properties.getMaxPoolSize() != null) {
+                pool.maxSize(properties.getMaxPoolSize());
+            }
+            if (properties.getMaxConnecting() != null) {
+                pool.maxConnecting(properties.getMaxConnecting());
+            }
+            if (properties.getMaxWaitTimeMs() != null) {
+                pool.maxWaitTime(properties.getMaxWaitTimeMs(), TimeUnit.MILLISECONDS);
+            }
+        });
+        builder.applyToSocketSettings(socket -> {
+            if (properties.getSocketConnectTimeoutMs() != null) {
+                socket.connectTimeout(
+                        properties.getSocketConnectTimeoutMs(), TimeUnit.MILLISECONDS);
+            }
+            if (properties.getSocketReadTimeoutMs() != null) {
+                socket.readTimeout(properties.getSocketReadTimeoutMs(), TimeUnit.MILLISECONDS);
+            }
+        });
+        if (properties.getReadPreference() != null) {
+            builder.readPreference(readPreference(
+                    properties.getReadPreference(), properties.getReadPreferenceTags()));
+        }
+        if (compressors != null && !compressors.isEmpty()) {
+            builder.compressorList(compressors.stream()
+                    .map(MongoClientFactory::compressor)
+                    .collect(Collectors.toList()));
+        }
+        return builder.build();
+    }
+
+    static MongoCompressor compressor(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "zstd":
+                return MongoCompressor.createZstdCompressor();
+            case "snappy":
+                return MongoCompressor.createSnappyCompressor();
+            case "zlib":
+                return MongoCompressor.createZlibCompressor();
+            default:
+                throw new IllegalArgumentException("Unsupported compressor " + name);
+        }
+    }
+
+    // Uses the same socket implementation the driver would pick on its own, wrapped for counting.
+    @SuppressWarnings("deprecation")
+    private static MongoClientSettings countWireBytes(
+            MongoClientSettings settings, WireCounter wireCounter) {
+        StreamFactoryFactory streams = settings.getSslSettings().isEnabled()
+                ? new TlsChannelStreamFactoryFactory()
+                : AsynchronousSocketChannelStreamFactoryFactory.builder().build();
+        return MongoClientSettings.builder(settings)
+                .streamFactoryFactory(new CountingStreamFactoryFactory(streams, wireCounter))
+                .build();
+    }
+
+    static ReadPreference readPreference(String mode, List<Map<String, String>> tagSets) {
+        if (tagSets == null || tagSets.isEmpty()) {
+            return ReadPreference.valueOf(mode);
+        }
+        List<TagSet> tags = tagSets.stream()
+                .map(tagSet -> new TagSet(tagSet.entrySet().stream()
+                        .map(tag -> new Tag(tag.getKey(), tag.getValue()))
+                        .collect(Collectors.toList())))
+                .collect(Collectors.toList());
+        return ReadPreference.valueOf(mode, tags);
+    }
+
+    private static final class CachedClient {
+        private final String passwordHash;
+        private final MongoClient client;
+
+        private CachedClient(String passwordHash, MongoClient client) {
+            this.passwordHash = passwordHash;
+            this.client = client;
+        }
     }
 }
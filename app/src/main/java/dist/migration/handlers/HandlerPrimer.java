@@ -0,0 +1,90 @@
+package dist.migration.handlers;
+
+import com.mongodb.MongoClientSettings;
+import dist.migration.dtos.EventType;
+import dist.migration.dtos.ResponseDto;
+import dist.migration.factories.MongoClientFactory;
+import dist.migration.services.ByteBudgetBatcher;
+import dist.migration.services.DocumentFormat;
+import java.util.Date;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
+
+/**
+ * Runs the handler's hot paths once before the first invocation, so class loading and static
+ * initialization of Reactor, the BSON codecs, Jackson, Gson and the AWS SDK happen during init (or
+ * before a SnapStart/CRaC checkpoint) instead of on the clock of the first request.
+ *
+ * <p>Disable with {@code -Dmigration.priming=false}.
+ */
+class HandlerPrimer implements Resource {
+
+  private static final Logger log = LoggerFactory.getLogger(HandlerPrimer.class);
+  static final String PRIMING_PROPERTY = "migration.priming";
+
+  // CRaC only keeps weak references to registered resources.
+  private static final HandlerPrimer INSTANCE = new HandlerPrimer();
+
+  static void register() {
+    if (!Boolean.parseBoolean(System.getProperty(PRIMING_PROPERTY, "true"))) {
+      return;
+    }
+    prime();
+    Core.getGlobalContext().register(INSTANCE);
+  }
+
+  static void prime() {
+    long start = System.nanoTime();
+    try {
+      MongoMigrationHandler.getConfig();
+
+      Document document =
+          new Document("_id", new ObjectId())
+              .append("name", "priming")
+              .append("data", "x".repeat(1024))
+              .append("timeStamp", new Date());
+      document.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+      RawBsonDocument raw = new RawBsonDocument(document, new DocumentCodec());
+      Document decoded = raw.decode(new DocumentCodec());
+      DocumentFormat.DOCUMENT.sizeOf(decoded);
+      DocumentFormat.DOCUMENT.idOf(decoded);
+      DocumentFormat.RAW.sizeOf(raw);
+      DocumentFormat.RAW.idOf(raw);
+
+      new ByteBudgetBatcher(1024 * 1024, 100)
+          .batch(Flux.just(raw, raw, raw), DocumentFormat.RAW::sizeOf)
+          .blockLast();
+
+      GetSecretValueRequest.builder().secretId("priming").build();
+      ResponseDto.builder()
+          .eventType(EventType.checkConnectivity)
+          .result("priming")
+          .build()
+          .toString();
+      log.info("Primed handler in {} ms", (System.nanoTime() - start) / 1_000_000);
+    } catch (RuntimeException e) {
+      // Priming is an optimization only; the first invocation will surface any real problem.
+      log.warn("Handler priming failed", e);
+    }
+  }
+
+  @Override
+  public void beforeCheckpoint(Context<? extends Resource> context) {
+    prime();
+    // Connections do not survive a snapshot restore.
+    MongoClientFactory.closeAll();
+  }
+
+  @Override
+  public void afterRestore(Context<? extends Resource> context) {}
+}
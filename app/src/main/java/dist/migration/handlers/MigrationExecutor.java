@@ -1,6 +1,15 @@
 package dist.migration.handlers;
 
+import com.google.gson.Gson;
+import dist.migration.configs.CollectionProperties;
+import dist.migration.dtos.MetricsDto;
+import dist.migration.metrics.Histogram;
+import dist.migration.services.MigrationStats;
 import dist.migration.services.MongoMigrationService;
+import dist.migration.services.TimeBudget;
+import dist.migration.services.VerificationReport;
+import java.util.List;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Mono;
@@ -9,9 +18,15 @@ public class MigrationExecutor {
   private static final Logger log = LoggerFactory.getLogger(MigrationExecutor.class);
 
   private final MongoMigrationService migrationService;
+  private final TimeBudget budget;
 
   public MigrationExecutor(MongoMigrationService migrationService) {
+    this(migrationService, TimeBudget.unlimited());
+  }
+
+  public MigrationExecutor(MongoMigrationService migrationService, TimeBudget budget) {
     this.migrationService = migrationService;
+    this.budget = budget;
   }
 
   public void getCollectionSize(String collectionName) {
@@ -68,6 +83,22 @@ public class MigrationExecutor {
     }
   }
 
+  public MigrationStats tailChanges(List<String> collectionPatterns) {
+    try {
+      return migrationService.tailChanges(collectionPatterns, budget).block();
+    } catch (Exception e) {
+      throw new MigrationExecutorException("Change stream tailing failed", e);
+    }
+  }
+
+  public VerificationReport verify(String collectionName, boolean sampled) {
+    try {
+      return migrationService.verifyCollection(collectionName, sampled).block();
+    } catch (Exception e) {
+      throw new MigrationExecutorException("Verification failed", e);
+    }
+  }
+
   public void run() {
     try {
       startMigration().block();
@@ -79,10 +110,29 @@ public class MigrationExecutor {
     }
   }
 
-  public void run(String collectionName) {
+  public MigrationStats run(String collectionName) {
+    return run(collectionName, null);
+  }
+
+  public MigrationStats run(String collectionName, CollectionProperties overrides) {
     try {
       log.info("Migrating: {}", collectionName);
-      startMigration(collectionName).block();
+      return startMigration(
+              () -> migrationService.migrateCollection(collectionName, budget, overrides))
+          .block();
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof MigrationExecutorException) {
+        throw (MigrationExecutorException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  public MigrationStats runDatabase(List<String> collectionPatterns) {
+    try {
+      log.info("Migrating database, collections: {}", collectionPatterns);
+      return startMigration(() -> migrationService.migrateDatabase(collectionPatterns, budget))
+          .block();
     } catch (RuntimeException e) {
       if (e.getCause() instanceof MigrationExecutorException) {
         throw (MigrationExecutorException) e.getCause();
@@ -91,7 +141,68 @@ public class MigrationExecutor {
     }
   }
 
-  private Mono<Void> startMigration(String collectionName) {
+  /** Exports to the archive directory; only the source has to be reachable. */
+  public MigrationStats exportCollection(String collectionName, CollectionProperties overrides) {
+    log.info("Exporting: {}", collectionName);
+    return transfer(
+        migrationService.testSourceConnectivity(),
+        "Source",
+        () -> migrationService.exportCollection(collectionName, budget, overrides));
+  }
+
+  /** Imports from the archive directory; only the destination has to be reachable. */
+  public MigrationStats importCollection(String collectionName) {
+    log.info("Importing: {}", collectionName);
+    return transfer(
+        migrationService.testDestinationConnectivity(),
+        "Destination",
+        () -> migrationService.importCollection(collectionName, budget));
+  }
+
+  private MigrationStats transfer(
+      Mono<Boolean> connectivity, String label, Supplier<Mono<MigrationStats>> transfer) {
+    try {
+      return connectivity
+          .flatMap(
+              result ->
+                  result
+                      ? transfer.get()
+                      : Mono.error(
+                          new MigrationExecutorException(label + " Connectivity Test Failed")))
+          .doOnSuccess(
+              stats ->
+                  log.info(
+                      "Transferred {} documents, completed: {}",
+                      stats.getDocuments().get(),
+                      stats.isCompleted()))
+          .block();
+    } catch (MigrationExecutorException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new MigrationExecutorException("Archive transfer failed", e);
+    }
+  }
+
+  public static MetricsDto metricsSummary(MigrationStats stats) {
+    double seconds = Math.max(1, stats.getElapsedMillis()) / 1000.0;
+    Histogram reads = stats.getBatchReadMicros();
+    Histogram writes = stats.getBatchWriteMicros();
+    return MetricsDto.builder()
+        .documentsPerSecond(stats.getDocuments().get() / seconds)
+        .bytesPerSecond(stats.getBytes().get() / seconds)
+        .readBatchP50Millis(reads.percentile(50) / 1000.0)
+        .readBatchP99Millis(reads.percentile(99) / 1000.0)
+        .writeBatchP50Millis(writes.percentile(50) / 1000.0)
+        .writeBatchP99Millis(writes.percentile(99) / 1000.0)
+        .cursorWaitMillis(reads.getSum() / 1000)
+        .writeWaitMillis(writes.getSum() / 1000)
+        .peakInFlightWrites(stats.getPeakInFlightWrites().get())
+        .peakBufferedBytes(stats.getMemoryGovernor().getPeakBytes())
+        .averageBufferedBytes(stats.getMemoryGovernor().getAverageBytes())
+        .build();
+  }
+
+  private Mono<MigrationStats> startMigration(Supplier<Mono<MigrationStats>> migration) {
     return Mono.fromRunnable(() -> log.info("Starting migration..."))
         .then(migrationService.testSourceConnectivity())
         .flatMap(
@@ -106,16 +217,26 @@ public class MigrationExecutor {
         .flatMap(
             result -> {
               if (result) {
-                return migrationService.migrateCollection(collectionName);
+                return migration.get();
               } else {
                 return Mono.error(
                     new MigrationExecutorException("Destination Connectivity Test Failed"));
               }
             })
-        .doOnSuccess(aVoid -> log.info("Migration completed successfully"))
+        .doOnSuccess(
+            stats -> {
+              log.info("Migration metrics: {}", new Gson().toJson(metricsSummary(stats)));
+              if (stats.isCompleted()) {
+                log.info("Migration completed successfully");
+              } else {
+                log.info(
+                    "Migration stopped at the time budget after {} documents, continue with {}",
+                    stats.getDocuments().get(),
+                    stats.getContinuationToken());
+              }
+            })
         .doOnError(e -> log.error("Migration failed", e))
         .doFinally(signalType -> log.info("Migration process ended with signal: " + signalType))
-        .then()
         .onErrorMap(
             e -> new MigrationExecutorException("Migration process was interrupted or failed", e));
   }
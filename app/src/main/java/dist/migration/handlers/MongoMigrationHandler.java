@@ -13,8 +13,10 @@ import dist.migration.configs.DatabaseProperties;
 import dist.migration.dtos.InputDto;
 import dist.migration.dtos.ResponseDto;
 import dist.migration.factories.MongoClientFactory;
+import dist.migration.metrics.WireCounter;
 import dist.migration.services.*;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +25,14 @@ import org.slf4j.MDC;
 public class MongoMigrationHandler implements RequestHandler<InputDto, String> {
   private static final Logger log = LoggerFactory.getLogger(MongoMigrationHandler.class);
   private static final String CONFIG_FILE = "/appconfig.yml";
+  private static final ObjectMapper YAML_MAPPER =
+      new ObjectMapper(new YAMLFactory())
+          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private static volatile Configuration cachedConfig;
+
+  static {
+    HandlerPrimer.register();
+  }
 
   @Override
   public String handleRequest(InputDto input, Context context) {
@@ -33,16 +43,39 @@ public class MongoMigrationHandler implements RequestHandler<InputDto, String> {
           input,
           context.getRemainingTimeInMillis(),
           context.getMemoryLimitInMB());
-      Configuration config = loadConfig();
+      Configuration config = getConfig();
       AwsSecretsService awsSecretsService;
       if (input.getEnv().equals("local")) {
         awsSecretsService = new AwsSecretServiceLocal();
       } else {
-        awsSecretsService = new AwsSecretsServiceImpl();
+        awsSecretsService = AwsSecretsServiceImpl.getInstance();
       }
+      DatabaseProperties databaseProperties = getDatabaseProperties(config, input);
+      Map<String, String> secrets =
+          awsSecretsService.getSecrets(
+              List.of(
+                  databaseProperties.getSourceUserNameArn(),
+                  databaseProperties.getSourceUserPasswordArn(),
+                  databaseProperties.getDestinationUserNameArn(),
+                  databaseProperties.getDestinationUserPasswordArn()));
+      MongoClient sourceClient = getSourceClient(databaseProperties, secrets);
+      MongoClient destClient = getDestinationClient(databaseProperties, secrets);
+      WireCounter sourceWireStart = MongoClientFactory.getWireCounter(sourceClient).snapshot();
+      WireCounter destinationWireStart = MongoClientFactory.getWireCounter(destClient).snapshot();
       MongoMigrationService migrationService =
-          createMongoMigrationService(config, input, awsSecretsService);
-      MigrationExecutor executor = new MigrationExecutor(migrationService);
+          new MongoMigrationService(
+              sourceClient,
+              databaseName(databaseProperties.getSourceDatabase(), input),
+              destClient,
+              databaseName(databaseProperties.getDestinationDatabase(), input),
+              databaseProperties,
+              MemoryGovernor.of(databaseProperties, context.getMemoryLimitInMB() * 1024L * 1024));
+      TimeBudget budget =
+          TimeBudget.of(
+              context.getRemainingTimeInMillis(), databaseProperties.getTimeBudgetReserveMillis());
+      MigrationExecutor executor = new MigrationExecutor(migrationService, budget);
+      MigrationStats stats = null;
+      VerificationReport verification = null;
       switch (input.getEventType()) {
         case dropCollection:
           executor.dropDatabase();
@@ -54,11 +87,41 @@ public class MongoMigrationHandler implements RequestHandler<InputDto, String> {
           executor.getCollectionSize(input.getCollectionName());
           break;
         case executeMigration:
-          executor.run(input.getCollectionName());
+          stats = executor.run(input.getCollectionName(), input.getCollectionOptions());
+          break;
+        case migrateDatabase:
+          stats = executor.runDatabase(input.getCollectionNames());
+          break;
+        case tailChanges:
+          stats = executor.tailChanges(input.getCollectionNames());
+          break;
+        case verifyCollection:
+          verification = executor.verify(input.getCollectionName(), input.isSampled());
+          break;
+        case exportCollection:
+          stats =
+              executor.exportCollection(input.getCollectionName(), input.getCollectionOptions());
+          break;
+        case importCollection:
+          stats = executor.importCollection(input.getCollectionName());
           break;
         default:
           throw new MigrationExecutorException("Invalid event type");
       }
+      WireCounter sourceWire =
+          MongoClientFactory.getWireCounter(sourceClient).since(sourceWireStart);
+      WireCounter destinationWire =
+          MongoClientFactory.getWireCounter(destClient).since(destinationWireStart);
+      Double compressionRatio =
+          stats == null
+              ? null
+              : WireCounter.compressionRatio(
+                  stats.getBytes().get(), sourceWire.getBytesReceived());
+      log.info(
+          "Wire traffic source [{}], destination [{}], source compression ratio {}",
+          sourceWire,
+          destinationWire,
+          compressionRatio);
       MDC.clear();
       log.info("Completed migration");
       return ResponseDto.builder()
@@ -66,7 +129,26 @@ public class MongoMigrationHandler implements RequestHandler<InputDto, String> {
           .dataBaseName(input.getDataBaseName())
           .collectionName(input.getCollectionName())
           .eventType(input.getEventType())
-          .result("Successful")
+          .result(verification == null || verification.isMatch() ? "Successful" : "Mismatch")
+          .completed(stats == null || stats.isCompleted())
+          .continuationToken(
+              stats == null || stats.isCompleted() ? null : stats.getContinuationToken())
+          .documentsMigrated(stats == null ? null : stats.getDocuments().get())
+          .documentsSkipped(stats == null ? null : stats.getSkippedDocuments().get())
+          .bytesMigrated(stats == null ? null : stats.getBytes().get())
+          .lagSeconds(
+              stats == null || stats.getReplicationLagSeconds().get() < 0
+                  ? null
+                  : stats.getReplicationLagSeconds().get())
+          .firstBatchMillis(
+              stats == null || stats.getFirstBatchMillis().get() < 0
+                  ? null
+                  : stats.getFirstBatchMillis().get())
+          .sourceWireBytes(sourceWire.getBytesReceived())
+          .destinationWireBytes(destinationWire.getBytesSent())
+          .compressionRatio(compressionRatio)
+          .metrics(stats == null ? null : MigrationExecutor.metricsSummary(stats))
+          .verification(verification)
           .build()
           .toString();
     } catch (Exception e) {
@@ -81,42 +163,59 @@ public class MongoMigrationHandler implements RequestHandler<InputDto, String> {
     }
   }
 
-  private static MongoMigrationService createMongoMigrationService(
-      Configuration config, InputDto input, AwsSecretsService awsSecretsService) {
-
+  private static DatabaseProperties getDatabaseProperties(Configuration config, InputDto input) {
     AppConfigProperties appConfigProperties = config.getConfigForEnv(input.getEnv());
     Map<String, DatabaseProperties> databaseConfigs = appConfigProperties.getDatabases();
-    DatabaseProperties databaseProperties = databaseConfigs.get(input.getDataBaseName());
-    String sourceHost = databaseProperties.getSourceUrl();
-    String sourceDatabase = input.getDataBaseName();
-    String sourceUsername = awsSecretsService.getSecret(databaseProperties.getSourceUserNameArn());
-    String sourcePassword =
-        awsSecretsService.getSecret(databaseProperties.getSourceUserPasswordArn());
+    return databaseConfigs.get(input.getDataBaseName());
+  }
 
-    String destHost = databaseProperties.getDestinationUrl();
-    String destinationDatabase = input.getDataBaseName();
-    String destinationUsername =
-        awsSecretsService.getSecret(databaseProperties.getDestinationUserNameArn());
-    String destinationPassword =
-        awsSecretsService.getSecret(databaseProperties.getDestinationUserPasswordArn());
-    String collectionName = input.getCollectionName();
+  // The configured name, or the name the configuration is looked up by.
+  private static String databaseName(String configured, InputDto input) {
+    return configured == null || configured.isBlank() ? input.getDataBaseName() : configured;
+  }
 
-    MongoClient sourceClient =
-        MongoClientFactory.createClient(sourceHost, sourceUsername, sourcePassword);
-    MongoClient destClient =
-        MongoClientFactory.createClient(destHost, destinationUsername, destinationPassword);
+  private static MongoClient getSourceClient(
+      DatabaseProperties databaseProperties, Map<String, String> secrets) {
+    String sourceUsername = secrets.get(databaseProperties.getSourceUserNameArn());
+    String sourcePassword = secrets.get(databaseProperties.getSourceUserPasswordArn());
+    return MongoClientFactory.getOrCreateClient(
+        databaseProperties.getSourceUrl(),
+        sourceUsername,
+        sourcePassword,
+        databaseProperties,
+        databaseProperties.getSourceCompressors());
+  }
 
-    return new MongoMigrationService(
-        sourceClient, sourceDatabase, destClient, destinationDatabase);
+  private static MongoClient getDestinationClient(
+      DatabaseProperties databaseProperties, Map<String, String> secrets) {
+    String destinationUsername = secrets.get(databaseProperties.getDestinationUserNameArn());
+    String destinationPassword = secrets.get(databaseProperties.getDestinationUserPasswordArn());
+    return MongoClientFactory.getOrCreateClient(
+        databaseProperties.getDestinationUrl(),
+        destinationUsername,
+        destinationPassword,
+        databaseProperties,
+        databaseProperties.getDestinationCompressors());
   }
 
-  private static Configuration loadConfig() {
-    ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
-    yamlMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  // Parsed once per container; warm invocations reuse it.
+  static Configuration getConfig() {
+    Configuration configuration = cachedConfig;
+    if (configuration == null) {
+      synchronized (MongoMigrationHandler.class) {
+        if (cachedConfig == null) {
+          cachedConfig = loadConfig();
+        }
+        configuration = cachedConfig;
+      }
+    }
+    return configuration;
+  }
 
+  private static Configuration loadConfig() {
     try (InputStream inputStream = MongoMigrationHandler.class.getResourceAsStream(CONFIG_FILE)) {
       Map<String, AppConfigProperties> configMap =
-          yamlMapper.readValue(inputStream, new TypeReference<>() {});
+          YAML_MAPPER.readValue(inputStream, new TypeReference<>() {});
       Configuration configuration = new Configuration();
       configuration.setEnvironments(configMap);
       return configuration;
@@ -0,0 +1,66 @@
+package dist.migration.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One CloudWatch Embedded Metric Format record: a JSON log line that CloudWatch Logs turns into
+ * metrics under the given namespace and dimensions.
+ */
+public class EmbeddedMetrics {
+
+  private final String namespace;
+  private final Map<String, String> dimensions = new LinkedHashMap<>();
+  private final Map<String, Number> values = new LinkedHashMap<>();
+  private final Map<String, String> units = new LinkedHashMap<>();
+
+  public EmbeddedMetrics(String namespace) {
+    this.namespace = namespace;
+  }
+
+  public EmbeddedMetrics dimension(String name, String value) {
+    dimensions.put(name, value);
+    return this;
+  }
+
+  public EmbeddedMetrics put(String name, Number value, String unit) {
+    values.put(name, value);
+    units.put(name, unit);
+    return this;
+  }
+
+  public String toJson(long timestampMillis) {
+    JsonArray dimensionSet = new JsonArray();
+    dimensions.keySet().forEach(dimensionSet::add);
+    JsonArray dimensionSets = new JsonArray();
+    dimensionSets.add(dimensionSet);
+
+    JsonArray metrics = new JsonArray();
+    units.forEach(
+        (name, unit) -> {
+          JsonObject metric = new JsonObject();
+          metric.addProperty("Name", name);
+          metric.addProperty("Unit", unit);
+          metrics.add(metric);
+        });
+
+    JsonObject directive = new JsonObject();
+    directive.addProperty("Namespace", namespace);
+    directive.add("Dimensions", dimensionSets);
+    directive.add("Metrics", metrics);
+    JsonArray directives = new JsonArray();
+    directives.add(directive);
+
+    JsonObject aws = new JsonObject();
+    aws.addProperty("Timestamp", timestampMillis);
+    aws.add("CloudWatchMetrics", directives);
+
+    JsonObject root = new JsonObject();
+    root.add("_aws", aws);
+    dimensions.forEach(root::addProperty);
+    values.forEach(root::addProperty);
+    return root.toString();
+  }
+}
@@ -0,0 +1,128 @@
+package dist.migration.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram for non-negative values. Each power of two is split into {@value
+ * #SUB_BUCKETS} equal sub-buckets, so recorded values are kept with roughly 12% precision.
+ */
+public class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  public void record(long value) {
+    long v = Math.max(0, value);
+    counts.incrementAndGet(bucketIndex(v));
+    count.incrementAndGet();
+    sum.addAndGet(v);
+    min.accumulateAndGet(v, Math::min);
+    max.accumulateAndGet(v, Math::max);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMin() {
+    return count.get() == 0 ? 0 : min.get();
+  }
+
+  public long getMax() {
+    return count.get() == 0 ? 0 : max.get();
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /** Returns an upper estimate of the value at the given percentile (0-100). */
+  public long percentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBound(i) - 1, getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /** Non-empty buckets as {@code [lower,upper)=count}, in ascending order. */
+  public String describeBuckets() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < BUCKETS; i++) {
+      long bucketCount = counts.get(i);
+      if (bucketCount > 0) {
+        if (builder.length() > 0) {
+          builder.append(", ");
+        }
+        builder
+            .append('[')
+            .append(lowerBound(i))
+            .append(',')
+            .append(upperBound(i))
+            .append(")=")
+            .append(bucketCount);
+      }
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d, min=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d",
+        getCount(),
+        getMin(),
+        getMean(),
+        percentile(50),
+        percentile(90),
+        percentile(99),
+        getMax());
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long lowerBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = index % SUB_BUCKETS;
+    return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index + 1L;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    return lowerBound(index) + (1L << (exponent - SUB_BUCKET_BITS));
+  }
+}
@@ -0,0 +1,48 @@
+package dist.migration.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Bytes written to and read from the sockets of one MongoClient, after wire compression. */
+public class WireCounter {
+
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  public void sent(long bytes) {
+    bytesSent.addAndGet(bytes);
+  }
+
+  public void received(long bytes) {
+    bytesReceived.addAndGet(bytes);
+  }
+
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  /** Traffic since the given snapshot of this counter. */
+  public WireCounter since(WireCounter start) {
+    WireCounter delta = new WireCounter();
+    delta.sent(getBytesSent() - start.getBytesSent());
+    delta.received(getBytesReceived() - start.getBytesReceived());
+    return delta;
+  }
+
+  public WireCounter snapshot() {
+    return since(new WireCounter());
+  }
+
+  /** Logical bytes per byte on the wire, or null if nothing went over the wire. */
+  public static Double compressionRatio(long logicalBytes, long wireBytes) {
+    return wireBytes <= 0 ? null : (double) logicalBytes / wireBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "sent=" + bytesSent.get() + ", received=" + bytesReceived.get();
+  }
+}
@@ -0,0 +1,178 @@
+package dist.migration.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.bson.RawBsonDocument;
+
+/**
+ * Reads documents back from gzip segments of concatenated BSON, such as those written by {@link
+ * ArchiveWriter} or mongodump. Each segment is memory mapped and inflated into a direct buffer; the
+ * only heap copy of a document is the one handed to the driver. Concatenated gzip members within a
+ * segment are read in sequence. Not thread safe.
+ */
+public class ArchiveReader implements Closeable {
+
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  private static final int FHCRC = 2;
+
+  private final List<Path> segments;
+  private final Inflater inflater = new Inflater(true);
+  private final CRC32 crc = new CRC32();
+  private ByteBuffer out;
+  private int nextSegment;
+  private Path segment;
+  private MappedByteBuffer mapped;
+
+  /** @param bufferBytes initial size of the direct buffer, grown for larger documents */
+  public ArchiveReader(List<Path> segments, int bufferBytes) {
+    this.segments = segments;
+    this.out = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+    out.flip();
+  }
+
+  /** The next document, or null after the last segment. */
+  public RawBsonDocument next() {
+    try {
+      while (true) {
+        if (out.remaining() >= 4) {
+          int length = out.getInt(out.position());
+          if (out.remaining() >= length) {
+            byte[] bytes = new byte[length];
+            out.get(bytes);
+            return new RawBsonDocument(bytes);
+          }
+          if (length > out.capacity()) {
+            grow(length);
+          }
+        }
+        if (!fill()) {
+          if (out.hasRemaining()) {
+            throw new IllegalStateException(
+                "Archive segment " + segment + " ends inside a document");
+          }
+          return null;
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Archive segment " + segment + " is corrupt", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    inflater.end();
+    // The mapping itself is released when the buffer is collected.
+    mapped = null;
+  }
+
+  /** Inflates more data after what is left in the buffer; false once every segment is read. */
+  private boolean fill() throws IOException, DataFormatException {
+    while (true) {
+      if (mapped == null || inflater.finished()) {
+        if (mapped != null) {
+          checkTrailer();
+        }
+        if ((mapped == null || !startMember()) && !openNextSegment()) {
+          return false;
+        }
+      }
+      out.compact();
+      ByteBuffer window = out.duplicate();
+      int inflated = inflater.inflate(out);
+      window.limit(out.position());
+      window.position(window.limit() - inflated);
+      crc.update(window);
+      out.flip();
+      if (inflated > 0) {
+        return true;
+      }
+      if (inflater.needsInput() && !inflater.finished()) {
+        throw new IllegalStateException("Archive segment " + segment + " is truncated");
+      }
+    }
+  }
+
+  private boolean openNextSegment() throws IOException {
+    mapped = null;
+    if (nextSegment >= segments.size()) {
+      return false;
+    }
+    segment = segments.get(nextSegment++);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IllegalStateException(
+            "Archive segment " + segment + " is larger than 2 GB and cannot be mapped");
+      }
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    mapped.order(ByteOrder.LITTLE_ENDIAN);
+    if (!startMember()) {
+      throw new IllegalStateException("Archive segment " + segment + " is not gzip");
+    }
+    return true;
+  }
+
+  /** Skips the next gzip member header, returning false at the end of the segment. */
+  private boolean startMember() {
+    if (mapped.remaining() < 10
+        || (mapped.get(mapped.position()) & 0xff) != 0x1f
+        || (mapped.get(mapped.position() + 1) & 0xff) != 0x8b) {
+      return false;
+    }
+    int flags = mapped.get(mapped.position() + 3);
+    mapped.position(mapped.position() + 10);
+    if ((flags & FEXTRA) != 0) {
+      int extra = mapped.getShort() & 0xffff;
+      mapped.position(mapped.position() + extra);
+    }
+    if ((flags & FNAME) != 0) {
+      skipZeroTerminated();
+    }
+    if ((flags & FCOMMENT) != 0) {
+      skipZeroTerminated();
+    }
+    if ((flags & FHCRC) != 0) {
+      mapped.position(mapped.position() + 2);
+    }
+    inflater.reset();
+    inflater.setInput(mapped);
+    crc.reset();
+    return true;
+  }
+
+  private void skipZeroTerminated() {
+    while (mapped.get() != 0) {
+      // skip
+    }
+  }
+
+  private void checkTrailer() {
+    if (mapped.remaining() < 8 || mapped.getInt() != (int) crc.getValue()) {
+      throw new IllegalStateException("Archive segment " + segment + " failed its CRC check");
+    }
+    mapped.getInt();
+  }
+
+  private void grow(int length) {
+    ByteBuffer larger = ByteBuffer.allocateDirect(Integer.highestOneBit(length) << 1);
+    larger.order(ByteOrder.LITTLE_ENDIAN);
+    larger.put(out);
+    larger.flip();
+    out = larger;
+  }
+}
@@ -0,0 +1,162 @@
+package dist.migration.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.bson.RawBsonDocument;
+
+/**
+ * Appends documents to numbered gzip segments ({@code 000000.bson.gz}, ...) of concatenated BSON,
+ * the same content as a mongodump {@code .bson.gz} file; concatenating the segments gives a file
+ * mongorestore accepts. Document bytes are deflated straight from the driver's buffers into a
+ * direct buffer that is written with a {@link FileChannel}. Each segment is a complete gzip member
+ * forced to disk before the {@link SegmentListener} hears of it. Not thread safe.
+ */
+public class ArchiveWriter implements Closeable {
+
+  static final String SEGMENT_SUFFIX = ".bson.gz";
+  // Magic, deflate, no flags, no mtime, no extra flags, unknown OS.
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private final Path directory;
+  private final int firstSegment;
+  private final long segmentBytes;
+  private final SegmentListener listener;
+  private final ByteBuffer out;
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final List<Path> segments = new ArrayList<>();
+  private FileChannel channel;
+  private long segmentUncompressed;
+  private RawBsonDocument lastDocument;
+
+  /** Told about every finished segment. */
+  public interface SegmentListener {
+    /**
+     * @param segments segments finished so far, counting those before the first one written here
+     * @param lastDocument the last document of the finished segment
+     */
+    void finished(int segments, RawBsonDocument lastDocument);
+  }
+
+  /**
+   * @param segmentBytes uncompressed bytes after which the next segment is started
+   * @param bufferBytes size of the direct buffer compressed data is staged in
+   */
+  public ArchiveWriter(Path directory, long segmentBytes, int bufferBytes, int level) {
+    this(directory, 0, segmentBytes, bufferBytes, level, (segments, lastDocument) -> {});
+  }
+
+  /** @param firstSegment number of the first segment written, after those already on disk */
+  public ArchiveWriter(
+      Path directory,
+      int firstSegment,
+      long segmentBytes,
+      int bufferBytes,
+      int level,
+      SegmentListener listener) {
+    this.directory = directory;
+    this.firstSegment = firstSegment;
+    this.segmentBytes = segmentBytes;
+    this.listener = listener;
+    this.out = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+    this.deflater = new Deflater(level, true);
+  }
+
+  public void write(RawBsonDocument document) {
+    try {
+      if (channel == null) {
+        openSegment();
+      }
+      ByteBuffer bytes = document.getByteBuffer().asNIO();
+      lastDocument = document;
+      segmentUncompressed += bytes.remaining();
+      crc.update(bytes.duplicate());
+      deflater.setInput(bytes);
+      while (!deflater.needsInput()) {
+        deflate();
+      }
+      if (segmentUncompressed >= segmentBytes) {
+        finishSegment();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Segments written so far, in order. */
+  public List<Path> getSegments() {
+    return segments;
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (channel != null) {
+        finishSegment();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private void openSegment() throws IOException {
+    Path segment =
+        directory.resolve(
+            String.format("%06d%s", firstSegment + segments.size(), SEGMENT_SUFFIX));
+    channel =
+        FileChannel.open(
+            segment,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    segments.add(segment);
+    out.put(GZIP_HEADER);
+  }
+
+  private void finishSegment() throws IOException {
+    deflater.finish();
+    while (!deflater.finished()) {
+      deflate();
+    }
+    if (out.remaining() < 8) {
+      drain();
+    }
+    out.putInt((int) crc.getValue());
+    out.putInt((int) segmentUncompressed);
+    drain();
+    channel.force(true);
+    channel.close();
+    channel = null;
+    deflater.reset();
+    crc.reset();
+    segmentUncompressed = 0;
+    listener.finished(firstSegment + segments.size(), lastDocument);
+  }
+
+  private void deflate() throws IOException {
+    deflater.deflate(out);
+    if (!out.hasRemaining()) {
+      drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    out.flip();
+    while (out.hasRemaining()) {
+      channel.write(out);
+    }
+    out.clear();
+  }
+}
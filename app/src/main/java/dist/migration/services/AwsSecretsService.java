@@ -1,5 +1,18 @@
 package dist.migration.services;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public interface AwsSecretsService {
     public String getSecret(String secretArn);
+
+    /** Resolves several secrets at once, keyed by ARN. */
+    default Map<String, String> getSecrets(Collection<String> secretArns) {
+        Map<String, String> secrets = new LinkedHashMap<>();
+        for (String secretArn : secretArns) {
+            secrets.computeIfAbsent(secretArn, this::getSecret);
+        }
+        return secrets;
+    }
 }
@@ -1,35 +1,104 @@
 package dist.migration.services;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
 import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
 import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueResponse;
 
+/**
+ * Secrets Manager lookups through one shared client, with values cached for a TTL so warm
+ * invocations skip the round trips entirely.
+ */
 public class AwsSecretsServiceImpl implements AwsSecretsService {
 
   private static final Logger logger = LoggerFactory.getLogger(AwsSecretsServiceImpl.class);
   private static final String AWS_REGION_US_EAST_1 = "us-east-1";
+  private static final String ENDPOINT_ENV = "SECRETS_MANAGER_ENDPOINT";
+  private static final String DEFAULT_ENDPOINT = "http://localstack:4566";
+  private static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
 
-  public String getSecret(String secretArn) {
-    try (SecretsManagerClient client =
-        SecretsManagerClient.builder()
-            .endpointOverride(URI.create("http://localstack:4566"))
-            .region(Region.of(AWS_REGION_US_EAST_1)) // replace with your AWS region
-            .build()) {
+  private final SecretsManagerClient client;
+  private final long ttlNanos;
+  private final Map<String, CachedSecret> cache = new ConcurrentHashMap<>();
+
+  public AwsSecretsServiceImpl(SecretsManagerClient client, Duration ttl) {
+    this.client = client;
+    this.ttlNanos = ttl.toNanos();
+  }
+
+  /** Shared instance, so the client and the cache survive across warm invocations. */
+  public static AwsSecretsServiceImpl getInstance() {
+    return Holder.INSTANCE;
+  }
 
+  static SecretsManagerClient createClient(String endpoint) {
+    return SecretsManagerClient.builder()
+        .endpointOverride(URI.create(endpoint))
+        .region(Region.of(AWS_REGION_US_EAST_1)) // replace with your AWS region
+        .build();
+  }
+
+  public String getSecret(String secretArn) {
+    CachedSecret cached = cache.get(secretArn);
+    if (cached != null && !cached.isExpired()) {
+      return cached.value;
+    }
+    try {
       logger.info("Retrieving secret ARN: {}", secretArn);
       GetSecretValueRequest valueRequest =
           GetSecretValueRequest.builder().secretId(secretArn).build();
 
       GetSecretValueResponse valueResponse = client.getSecretValue(valueRequest);
-      logger.info(
-          "Successfully retrieved secret ARN: {},{}", secretArn, valueResponse.secretString());
+      logger.info("Successfully retrieved secret ARN: {}", secretArn);
+      cache.put(secretArn, new CachedSecret(valueResponse.secretString(), System.nanoTime()));
       return valueResponse.secretString();
     } catch (Exception e) {
       throw new AwsSecretsServiceException("Failed to retrieve secret from AWS Secrets Manager", e);
     }
   }
+
+  /** Looks up the secrets that are not cached concurrently instead of one after another. */
+  @Override
+  public Map<String, String> getSecrets(Collection<String> secretArns) {
+    return Flux.fromIterable(secretArns)
+        .distinct()
+        .flatMap(
+            secretArn ->
+                Mono.fromCallable(() -> getSecret(secretArn))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .map(value -> Map.entry(secretArn, value)))
+        .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+        .block();
+  }
+
+  private class CachedSecret {
+    private final String value;
+    private final long fetchedAtNanos;
+
+    CachedSecret(String value, long fetchedAtNanos) {
+      this.value = value;
+      this.fetchedAtNanos = fetchedAtNanos;
+    }
+
+    boolean isExpired() {
+      return System.nanoTime() - fetchedAtNanos >= ttlNanos;
+    }
+  }
+
+  private static class Holder {
+    private static final AwsSecretsServiceImpl INSTANCE =
+        new AwsSecretsServiceImpl(
+            createClient(System.getenv().getOrDefault(ENDPOINT_ENV, DEFAULT_ENDPOINT)),
+            DEFAULT_TTL);
+  }
 }
@@ -0,0 +1,19 @@
+package dist.migration.services;
+
+import java.util.List;
+import lombok.Getter;
+
+@Getter
+public class Batch<T> {
+  private final List<T> documents;
+  private final long bytes;
+
+  public Batch(List<T> documents, long bytes) {
+    this.documents = documents;
+    this.bytes = bytes;
+  }
+
+  public int size() {
+    return documents.size();
+  }
+}
@@ -0,0 +1,24 @@
+package dist.migration.services;
+
+import lombok.Getter;
+
+/**
+ * A batch together with the outcome of writing it to the destination: documents written and
+ * documents skipped because they were already there.
+ */
+@Getter
+public class BatchResult<T> {
+  private final Batch<T> batch;
+  private final long written;
+  private final long skipped;
+
+  public BatchResult(Batch<T> batch, long written) {
+    this(batch, written, 0);
+  }
+
+  public BatchResult(Batch<T> batch, long written, long skipped) {
+    this.batch = batch;
+    this.written = written;
+    this.skipped = skipped;
+  }
+}
@@ -0,0 +1,80 @@
+package dist.migration.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+
+/**
+ * Groups a document stream into batches that are closed as soon as either the byte ceiling or the
+ * document ceiling would be exceeded. A single document larger than the byte ceiling is sent as a
+ * batch of its own.
+ */
+public class ByteBudgetBatcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(ByteBudgetBatcher.class);
+
+  // Default maxMessageSizeBytes advertised by mongod; larger batches are split by the driver.
+  public static final long MAX_MESSAGE_BYTES = 48_000_000L;
+
+  private final long maxBatchBytes;
+  private final int maxBatchDocuments;
+
+  public ByteBudgetBatcher(long maxBatchBytes, int maxBatchDocuments) {
+    if (maxBatchBytes > MAX_MESSAGE_BYTES) {
+      logger.warn(
+          "maxBatchBytes {} exceeds the wire message limit, using {}",
+          maxBatchBytes,
+          MAX_MESSAGE_BYTES);
+    }
+    this.maxBatchBytes = Math.max(1, Math.min(maxBatchBytes, MAX_MESSAGE_BYTES));
+    this.maxBatchDocuments = Math.max(1, maxBatchDocuments);
+  }
+
+  public <T> Flux<Batch<T>> batch(Flux<T> documents, ToLongFunction<T> sizeOf) {
+    return Flux.defer(
+        () -> {
+          long[] open = new long[2]; // bytes and documents in the batch being filled
+          return documents
+              .map(document -> new Sized<>(document, sizeOf.applyAsLong(document)))
+              .bufferUntil(
+                  sized -> {
+                    boolean cut =
+                        open[1] > 0
+                            && (open[0] + sized.size > maxBatchBytes
+                                || open[1] >= maxBatchDocuments);
+                    if (cut) {
+                      open[0] = 0;
+                      open[1] = 0;
+                    }
+                    open[0] += sized.size;
+                    open[1]++;
+                    return cut;
+                  },
+                  true)
+              .map(ByteBudgetBatcher::toBatch);
+        });
+  }
+
+  private static <T> Batch<T> toBatch(List<Sized<T>> sizedDocuments) {
+    List<T> documents = new ArrayList<>(sizedDocuments.size());
+    long bytes = 0;
+    for (Sized<T> sized : sizedDocuments) {
+      documents.add(sized.document);
+      bytes += sized.size;
+    }
+    return new Batch<>(documents, bytes);
+  }
+
+  private static final class Sized<T> {
+    private final T document;
+    private final long size;
+
+    private Sized(T document, long size) {
+      this.document = document;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package dist.migration.services;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import dist.migration.configs.DatabaseProperties;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Replays source change events onto the destination. The starting point is recorded before the
+ * snapshot copy begins; after every applied batch the resume token is stored next to it, so each
+ * invocation continues where the previous one stopped. Only events of the migrated collections are
+ * read. Dropping or renaming the source database invalidates the stream, which fails the tailing
+ * rather than resuming past a change the destination cannot follow.
+ */
+public class ChangeStreamTailer {
+
+  private static final Logger logger = LoggerFactory.getLogger(ChangeStreamTailer.class);
+  public static final String STATE_ID = "changeStream";
+
+  private final MongoDatabase sourceDb;
+  private final MongoDatabase destDb;
+  private final MongoCollection<BsonDocument> state;
+  private final DatabaseProperties properties;
+  private final List<String> collectionPatterns;
+
+  public ChangeStreamTailer(
+      MongoDatabase sourceDb, MongoDatabase destDb, DatabaseProperties properties) {
+    this(sourceDb, destDb, properties, List.of());
+  }
+
+  /** @param collectionPatterns globs of the collections to replay, all of them when empty */
+  public ChangeStreamTailer(
+      MongoDatabase sourceDb,
+      MongoDatabase destDb,
+      DatabaseProperties properties,
+      List<String> collectionPatterns) {
+    this.sourceDb = sourceDb;
+    this.destDb = destDb;
+    this.state =
+        destDb.getCollection(
+            MongoMigrationService.MIGRATION_METADATA_COLLECTION, BsonDocument.class);
+    this.properties = properties;
+    this.collectionPatterns = collectionPatterns;
+  }
+
+  /** Records the source's current operation time unless an earlier start point exists. */
+  public Mono<Void> recordStart() {
+    return sourceOperationTime()
+        .flatMap(
+            operationTime ->
+                Mono.from(
+                        state.updateOne(
+                            Filters.eq("_id", STATE_ID),
+                            Updates.setOnInsert("startAtOperationTime", operationTime),
+                            new UpdateOptions().upsert(true)))
+                    .doOnNext(
+                        result -> {
+                          if (result.getUpsertedId() != null) {
+                            logger.info("Change stream start recorded at {}", operationTime);
+                          }
+                        }))
+        .switchIfEmpty(
+            Mono.fromRunnable(
+                () ->
+                    logger.warn(
+                        "Source reported no operationTime; change streams need a replica set")))
+        .then();
+  }
+
+  /**
+   * Applies change events until the stream reaches the source time observed when tailing started,
+   * goes idle, or the time budget expires. The stats are marked stopped in the last case only.
+   */
+  public Mono<MigrationStats> tail(MigrationStats stats) {
+    return Mono.from(state.find(Filters.eq("_id", STATE_ID)).first())
+        .switchIfEmpty(
+            Mono.error(
+                new MongoMigrationServiceException(
+                    "No change stream start point recorded; run a migration with changeStreams"
+                        + " enabled first")))
+        .zipWith(
+            sourceOperationTime()
+                .switchIfEmpty(
+                    Mono.error(
+                        new MongoMigrationServiceException(
+                            "Source reported no operationTime; change streams need a replica"
+                                + " set"))))
+        .flatMapMany(tuple -> tail(open(tuple.getT1()), tuple.getT2(), stats))
+        .then(Mono.just(stats));
+  }
+
+  private ChangeStreamPublisher<Document> open(BsonDocument saved) {
+    ChangeStreamPublisher<Document> publisher =
+        sourceDb
+            .watch(pipeline(collectionPatterns))
+            .fullDocument(FullDocument.UPDATE_LOOKUP)
+            .batchSize(properties.getChangeStreamBatchSize());
+    if (saved.containsKey("resumeToken")) {
+      logger.info("Resuming change stream after {}", saved.get("resumeToken"));
+      return publisher.resumeAfter(saved.getDocument("resumeToken"));
+    }
+    BsonTimestamp start = saved.getTimestamp("startAtOperationTime");
+    logger.info("Starting change stream at operation time {}", start);
+    return publisher.startAtOperationTime(start);
+  }
+
+  // Invalidate events carry no namespace and are delivered whatever the filter.
+  static List<Bson> pipeline(List<String> collectionPatterns) {
+    return List.of(Aggregates.match(CollectionPatterns.toFilter("ns.coll", collectionPatterns)));
+  }
+
+  private Flux<List<ChangeStreamDocument<Document>>> tail(
+      ChangeStreamPublisher<Document> publisher, BsonTimestamp target, MigrationStats stats) {
+    AtomicReference<ChangeStreamDocument<Document>> invalidated = new AtomicReference<>();
+    return Flux.from(publisher)
+        .takeUntilOther(stats.getBudget().expiry().doOnNext(expired -> stats.markStopped()))
+        .takeUntil(
+            event ->
+                event.getClusterTime() != null && event.getClusterTime().compareTo(target) >= 0)
+        .timeout(Duration.ofMillis(properties.getChangeStreamIdleMillis()))
+        .onErrorResume(TimeoutException.class, e -> Mono.empty())
+        // Events before the invalidation are still applied; its own token is never saved, as
+        // resuming after it would silently skip whatever invalidated the stream.
+        .takeWhile(
+            event -> {
+              if (event.getOperationType() == OperationType.INVALIDATE) {
+                invalidated.set(event);
+                return false;
+              }
+              return true;
+            })
+        .bufferTimeout(
+            properties.getChangeStreamBatchSize(),
+            Duration.ofMillis(properties.getChangeStreamFlushMillis()))
+        .concatMap(events -> apply(events).then(saveResumeToken(events)).thenReturn(events))
+        .doOnNext(
+            events -> {
+              ChangeStreamDocument<Document> last = events.get(events.size() - 1);
+              long applied = stats.addDocuments(events.size());
+              if (last.getClusterTime() != null) {
+                long lag = System.currentTimeMillis() / 1000 - last.getClusterTime().getTime();
+                stats.getReplicationLagSeconds().set(lag);
+                logger.info("Applied {} change events so far, lag {} seconds", applied, lag);
+              } else {
+                logger.info("Applied {} change events so far", applied);
+              }
+            })
+        .concatWith(
+            Mono.defer(
+                () ->
+                    invalidated.get() == null
+                        ? Mono.empty()
+                        : Mono.error(
+                            new MongoMigrationServiceException(
+                                "Change stream on "
+                                    + sourceDb.getName()
+                                    + " was invalidated at "
+                                    + invalidated.get().getClusterTime()
+                                    + " because the database was dropped or renamed; the"
+                                    + " destination can no longer follow it, migrate it again"
+                                    + " from a new start point"))));
+  }
+
+  private Mono<Void> apply(List<ChangeStreamDocument<Document>> events) {
+    return Flux.fromIterable(ChangeStreamWriteModels.group(events).entrySet())
+        .flatMap(
+            writes ->
+                destDb
+                    .getCollection(writes.getKey())
+                    .bulkWrite(writes.getValue(), new BulkWriteOptions().ordered(true)))
+        .then();
+  }
+
+  private Mono<Void> saveResumeToken(List<ChangeStreamDocument<Document>> events) {
+    ChangeStreamDocument<Document> last = events.get(events.size() - 1);
+    return Mono.from(
+            state.updateOne(
+                Filters.eq("_id", STATE_ID),
+                Updates.combine(
+                    Updates.set("resumeToken", last.getResumeToken()),
+                    Updates.set("lastClusterTime", last.getClusterTime()),
+                    Updates.currentDate("updatedAt")),
+                new UpdateOptions().upsert(true)))
+        .then();
+  }
+
+  private Mono<BsonTimestamp> sourceOperationTime() {
+    return Mono.from(
+            sourceDb.runCommand(new BsonDocument("ping", new BsonInt32(1)), BsonDocument.class))
+        .filter(response -> response.isTimestamp("operationTime"))
+        .map(response -> response.getTimestamp("operationTime"));
+  }
+}
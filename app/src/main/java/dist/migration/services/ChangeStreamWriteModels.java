@@ -0,0 +1,81 @@
+package dist.migration.services;
+
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Converts change events into idempotent destination writes, grouped per collection. */
+public class ChangeStreamWriteModels {
+
+  private static final Logger logger = LoggerFactory.getLogger(ChangeStreamWriteModels.class);
+  private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+
+  private ChangeStreamWriteModels() {}
+
+  /** Writes per collection name, each list in event order. */
+  public static Map<String, List<WriteModel<Document>>> group(
+      List<ChangeStreamDocument<Document>> events) {
+    Map<String, List<WriteModel<Document>>> writes = new LinkedHashMap<>();
+    for (ChangeStreamDocument<Document> event : events) {
+      toWriteModel(event)
+          .ifPresent(
+              model ->
+                  writes
+                      .computeIfAbsent(
+                          event.getNamespace().getCollectionName(), k -> new ArrayList<>())
+                      .add(model));
+    }
+    return writes;
+  }
+
+  static Optional<WriteModel<Document>> toWriteModel(ChangeStreamDocument<Document> event) {
+    BsonDocument key = event.getDocumentKey();
+    switch (event.getOperationType()) {
+      case INSERT:
+      case REPLACE:
+        return Optional.of(new ReplaceOneModel<>(key, event.getFullDocument(), UPSERT));
+      case UPDATE:
+        if (event.getFullDocument() != null) {
+          return Optional.of(new ReplaceOneModel<>(key, event.getFullDocument(), UPSERT));
+        }
+        return toUpdate(event.getUpdateDescription())
+            .<WriteModel<Document>>map(update -> new UpdateOneModel<>(key, update));
+      case DELETE:
+        return Optional.of(new DeleteOneModel<>(key));
+      default:
+        logger.warn(
+            "Skipping {} change event on {}", event.getOperationType(), event.getNamespace());
+        return Optional.empty();
+    }
+  }
+
+  private static Optional<BsonDocument> toUpdate(UpdateDescription description) {
+    if (description == null) {
+      return Optional.empty();
+    }
+    BsonDocument update = new BsonDocument();
+    if (description.getUpdatedFields() != null && !description.getUpdatedFields().isEmpty()) {
+      update.append("$set", description.getUpdatedFields());
+    }
+    if (description.getRemovedFields() != null && !description.getRemovedFields().isEmpty()) {
+      BsonDocument unset = new BsonDocument();
+      description.getRemovedFields().forEach(field -> unset.append(field, new BsonString("")));
+      update.append("$unset", unset);
+    }
+    return update.isEmpty() ? Optional.empty() : Optional.of(update);
+  }
+}
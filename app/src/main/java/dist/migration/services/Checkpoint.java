@@ -0,0 +1,23 @@
+package dist.migration.services;
+
+import lombok.Getter;
+import org.bson.BsonValue;
+
+/** Progress of one partition: every document up to and including {@code lastId} is committed. */
+@Getter
+public class Checkpoint {
+  private final IdRange range;
+  private final BsonValue lastId;
+  private final boolean completed;
+  private final long documents;
+  private final long bytes;
+
+  public Checkpoint(
+      IdRange range, BsonValue lastId, boolean completed, long documents, long bytes) {
+    this.range = range;
+    this.lastId = lastId;
+    this.completed = completed;
+    this.documents = documents;
+    this.bytes = bytes;
+  }
+}
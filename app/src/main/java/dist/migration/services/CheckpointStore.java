@@ -0,0 +1,147 @@
+package dist.migration.services;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Persists per-partition copy progress in the destination's {@value
+ * MongoMigrationService#MIGRATION_METADATA_COLLECTION} collection so that an interrupted migration
+ * can continue where the previous invocation stopped. Checkpoints of a filtered copy are kept apart
+ * per filter, since they only cover the documents that filter selects.
+ */
+public class CheckpointStore {
+
+  static final String TYPE = "checkpoint";
+
+  private final MongoCollection<BsonDocument> collection;
+  private final String filterHash;
+
+  public CheckpointStore(MongoDatabase database) {
+    this(database, null);
+  }
+
+  /** @param filterHash {@link CollectionOptions#filterHash()} of the copy, null when unfiltered */
+  public CheckpointStore(MongoDatabase database, String filterHash) {
+    this.collection =
+        database.getCollection(
+            MongoMigrationService.MIGRATION_METADATA_COLLECTION, BsonDocument.class);
+    this.filterHash = filterHash;
+  }
+
+  public Mono<List<Checkpoint>> load(String collectionName) {
+    return Flux.from(
+            collection
+                .find(
+                    Filters.and(
+                        Filters.eq("type", TYPE),
+                        Filters.eq("collection", collectionName),
+                        Filters.eq("filterHash", filterHash)))
+                .sort(Sorts.ascending("partition")))
+        .map(CheckpointStore::toCheckpoint)
+        .collectList();
+  }
+
+  public Mono<List<Checkpoint>> create(String collectionName, List<IdRange> ranges) {
+    List<BsonDocument> documents =
+        ranges.stream()
+            .map(range -> toDocument(collectionName, filterHash, range))
+            .collect(Collectors.toList());
+    return Mono.from(collection.insertMany(documents))
+        .thenReturn(
+            ranges.stream()
+                .map(range -> new Checkpoint(range, null, false, 0, 0))
+                .collect(Collectors.toList()));
+  }
+
+  public Mono<Void> advance(
+      String collectionName, IdRange range, BsonValue lastId, long documents, long bytes) {
+    return Mono.from(
+            collection.updateOne(
+                Filters.eq("_id", id(collectionName, filterHash, range)),
+                Updates.combine(
+                    Updates.set("lastId", lastId),
+                    Updates.inc("documents", documents),
+                    Updates.inc("bytes", bytes),
+                    Updates.currentDate("updatedAt"))))
+        .then();
+  }
+
+  public Mono<Void> complete(String collectionName, IdRange range) {
+    return Mono.from(
+            collection.updateOne(
+                Filters.eq("_id", id(collectionName, filterHash, range)),
+                Updates.combine(Updates.set("completed", true), Updates.currentDate("updatedAt"))))
+        .then();
+  }
+
+  /** Identifies the checkpoints a stopped copy of the collection continues from. */
+  public static String continuationToken(String collectionName) {
+    return TYPE + ":" + collectionName;
+  }
+
+  static String id(String collectionName, String filterHash, IdRange range) {
+    return TYPE
+        + ":"
+        + collectionName
+        + (filterHash == null ? "" : ":" + filterHash)
+        + ":"
+        + range.getIndex();
+  }
+
+  static BsonDocument toDocument(String collectionName, IdRange range) {
+    return toDocument(collectionName, null, range);
+  }
+
+  static BsonDocument toDocument(String collectionName, String filterHash, IdRange range) {
+    return new BsonDocument("_id", new BsonString(id(collectionName, filterHash, range)))
+        .append("type", new BsonString(TYPE))
+        .append("collection", new BsonString(collectionName))
+        .append("filterHash", filterHash == null ? BsonNull.VALUE : new BsonString(filterHash))
+        .append("partition", new BsonInt32(range.getIndex()))
+        .append("partitions", new BsonInt32(range.getCount()))
+        .append("lowerBound", orNull(range.getLowerBound()))
+        .append("upperBound", orNull(range.getUpperBound()))
+        .append("completed", BsonBoolean.FALSE)
+        .append("documents", new BsonInt64(0))
+        .append("bytes", new BsonInt64(0))
+        .append("updatedAt", new BsonDateTime(System.currentTimeMillis()));
+  }
+
+  static Checkpoint toCheckpoint(BsonDocument document) {
+    IdRange range =
+        new IdRange(
+            document.getInt32("partition").getValue(),
+            document.getInt32("partitions").getValue(),
+            bound(document.get("lowerBound")),
+            bound(document.get("upperBound")));
+    return new Checkpoint(
+        range,
+        bound(document.get("lastId")),
+        document.getBoolean("completed", BsonBoolean.FALSE).getValue(),
+        document.getNumber("documents", new BsonInt64(0)).longValue(),
+        document.getNumber("bytes", new BsonInt64(0)).longValue());
+  }
+
+  private static BsonValue orNull(BsonValue value) {
+    return value == null ? BsonNull.VALUE : value;
+  }
+
+  private static BsonValue bound(BsonValue value) {
+    return value == null || value.isNull() ? null : value;
+  }
+}
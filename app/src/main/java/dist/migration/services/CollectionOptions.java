@@ -0,0 +1,93 @@
+package dist.migration.services;
+
+import com.mongodb.client.model.Filters;
+import dist.migration.configs.CollectionProperties;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import lombok.Getter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+/** Parsed per-collection filter, projection and transform; absent parts are null. */
+@Getter
+public class CollectionOptions {
+  static final CollectionOptions NONE = new CollectionOptions(null, null, null);
+
+  private final Bson filter;
+  private final Bson projection;
+  private final DocumentTransform transform;
+
+  private CollectionOptions(Bson filter, Bson projection, DocumentTransform transform) {
+    this.filter = filter;
+    this.projection = projection;
+    this.transform = transform;
+  }
+
+  public static CollectionOptions of(CollectionProperties properties) {
+    if (properties == null) {
+      return NONE;
+    }
+    BsonDocument filter = parse(properties.getFilter());
+    BsonDocument projection = parse(properties.getProjection());
+    if (projection != null && excludesId(projection)) {
+      throw new IllegalArgumentException(
+          "Projection must keep _id, it is needed for partitioning and checkpoints: "
+              + properties.getProjection());
+    }
+    DocumentTransform transform =
+        new DocumentTransform(properties.getDrop(), properties.getRename(), properties.getSet());
+    return new CollectionOptions(filter, projection, transform.isEmpty() ? null : transform);
+  }
+
+  public boolean isEmpty() {
+    return filter == null && projection == null && transform == null;
+  }
+
+  /** Short digest of the pushed-down filter, or null without one. */
+  public String filterHash() {
+    if (filter == null) {
+      return null;
+    }
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256")
+              .digest(filter.toBsonDocument().toJson().getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(digest, 0, 8);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Whether the pushed-down filter still selects this copy's documents in the destination, which
+   * it cannot be relied on to do once a projection or transforms have reshaped them.
+   */
+  public boolean filterMatchesDestination() {
+    return filter == null || (projection == null && transform == null);
+  }
+
+  /** Combines the pushed-down filter with a range filter; either may be null. */
+  public Bson filter(Bson rangeFilter) {
+    if (filter == null) {
+      return rangeFilter;
+    }
+    return rangeFilter == null ? filter : Filters.and(rangeFilter, filter);
+  }
+
+  private static BsonDocument parse(String json) {
+    return json == null || json.isBlank() ? null : BsonDocument.parse(json);
+  }
+
+  private static boolean excludesId(BsonDocument projection) {
+    BsonValue id = projection.get("_id");
+    if (id == null) {
+      return false;
+    }
+    return id.isBoolean()
+        ? !id.asBoolean().getValue()
+        : id.isNumber() && id.asNumber().intValue() == 0;
+  }
+}
@@ -0,0 +1,53 @@
+package dist.migration.services;
+
+import com.mongodb.client.model.Filters;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.bson.conversions.Bson;
+
+/** Matches collection names against {@code *} / {@code ?} glob patterns. */
+public class CollectionPatterns {
+
+  private CollectionPatterns() {}
+
+  /** An empty or missing pattern list selects every non-system collection. */
+  public static boolean matches(List<String> patterns, String collectionName) {
+    if (collectionName.startsWith("system.")) {
+      return false;
+    }
+    if (patterns == null || patterns.isEmpty()) {
+      return true;
+    }
+    return patterns.stream()
+        .anyMatch(pattern -> toRegex(pattern).matcher(collectionName).matches());
+  }
+
+  /** The same selection as a query on the collection name held in {@code field}. */
+  public static Bson toFilter(String field, List<String> patterns) {
+    Bson notSystem = Filters.not(Filters.regex(field, "^system\\."));
+    if (patterns == null || patterns.isEmpty()) {
+      return notSystem;
+    }
+    return Filters.and(
+        notSystem,
+        Filters.or(
+            patterns.stream()
+                .map(pattern -> Filters.regex(field, "^" + toRegex(pattern).pattern() + "$"))
+                .collect(Collectors.toList())));
+  }
+
+  static Pattern toRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    for (char c : glob.toCharArray()) {
+      if (c == '*') {
+        regex.append(".*");
+      } else if (c == '?') {
+        regex.append('.');
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
+}
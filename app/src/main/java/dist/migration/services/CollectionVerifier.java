@@ -0,0 +1,232 @@
+package dist.migration.services;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import dist.migration.configs.DatabaseProperties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple3;
+import reactor.util.function.Tuples;
+
+/**
+ * Compares a collection between the source and the destination without pulling it across the
+ * network. In ranges mode both clusters compute a count, total BSON size and summed document hash
+ * per {@code _id} range, concurrently and server side. Sampled mode fetches a random sample from
+ * the source and compares it byte for byte with the destination, which is much cheaper on large
+ * collections. Both modes compare exact document counts of the whole collection, which also
+ * catches documents outside the planned ranges or the sample.
+ */
+public class CollectionVerifier {
+
+  private static final Logger logger = LoggerFactory.getLogger(CollectionVerifier.class);
+  // Keeps every summand small so the per-range sum stays an exact 64-bit integer.
+  static final long HASH_MODULUS = 1_000_000_007L;
+  private static final int INVALID_PIPELINE_OPERATOR = 168;
+  private static final int SAMPLE_LOOKUP_BATCH = 500;
+
+  private final MongoDatabase sourceDb;
+  private final MongoDatabase destDb;
+  private final DatabaseProperties properties;
+
+  public CollectionVerifier(
+      MongoDatabase sourceDb, MongoDatabase destDb, DatabaseProperties properties) {
+    this.sourceDb = sourceDb;
+    this.destDb = destDb;
+    this.properties = properties;
+  }
+
+  public Mono<VerificationReport> verifyRanges(String collectionName) {
+    MongoCollection<BsonDocument> source =
+        sourceDb.getCollection(collectionName, BsonDocument.class);
+    MongoCollection<BsonDocument> destination =
+        destDb.getCollection(collectionName, BsonDocument.class);
+
+    Mono<List<Tuple3<IdRange, RangeDigest, RangeDigest>>> digests =
+        IdRangePlanner.plan(source, properties.getVerifyPartitions())
+            .flatMapMany(Flux::fromIterable)
+            .flatMap(
+                range ->
+                    Mono.zip(digest(source, range), digest(destination, range))
+                        .map(pair -> Tuples.of(range, pair.getT1(), pair.getT2())),
+                Math.max(1, properties.getVerifyConcurrency()))
+            .collectList();
+
+    return Mono.zip(
+            digests, Mono.from(source.countDocuments()), Mono.from(destination.countDocuments()))
+        .map(
+            results ->
+                rangeReport(collectionName, results.getT1(), results.getT2(), results.getT3()))
+        .doOnNext(CollectionVerifier::log);
+  }
+
+  public Mono<VerificationReport> verifySample(String collectionName) {
+    MongoCollection<RawBsonDocument> source =
+        sourceDb.getCollection(collectionName, RawBsonDocument.class);
+    MongoCollection<RawBsonDocument> destination =
+        destDb.getCollection(collectionName, RawBsonDocument.class);
+    AtomicLong checked = new AtomicLong();
+    AtomicLong missing = new AtomicLong();
+    AtomicLong different = new AtomicLong();
+
+    // Exact counts: the metadata estimate can be stale after a copy and would hide missing
+    // documents the sample did not hit.
+    Mono<Long> countDelta =
+        Mono.zip(Mono.from(source.countDocuments()), Mono.from(destination.countDocuments()))
+            .map(counts -> counts.getT2() - counts.getT1());
+
+    return Flux.from(
+            source.aggregate(
+                List.of(Aggregates.sample(properties.getVerifySampleSize())),
+                RawBsonDocument.class))
+        .buffer(SAMPLE_LOOKUP_BATCH)
+        .flatMap(
+            sample ->
+                lookup(destination, sample)
+                    .doOnNext(
+                        found -> {
+                          for (RawBsonDocument document : sample) {
+                            checked.incrementAndGet();
+                            RawBsonDocument copy = found.get(document.get("_id"));
+                            if (copy == null) {
+                              missing.incrementAndGet();
+                            } else if (!copy.equals(document)) {
+                              different.incrementAndGet();
+                            }
+                          }
+                        }),
+            Math.max(1, properties.getVerifyConcurrency()))
+        .then(countDelta)
+        .map(
+            delta ->
+                VerificationReport.builder()
+                    .collectionName(collectionName)
+                    .mode("sampled")
+                    .documentsChecked(checked.get())
+                    .countDelta(delta)
+                    .mismatches(List.of())
+                    .missingDocuments(missing.get())
+                    .differentDocuments(different.get())
+                    .build())
+        .doOnNext(CollectionVerifier::log);
+  }
+
+  private static Mono<Map<BsonValue, RawBsonDocument>> lookup(
+      MongoCollection<RawBsonDocument> destination, List<RawBsonDocument> sample) {
+    List<BsonValue> ids =
+        sample.stream().map(document -> document.get("_id")).collect(Collectors.toList());
+    return Flux.from(destination.find(Filters.in("_id", ids)))
+        .collectMap(document -> document.get("_id"));
+  }
+
+  private Mono<RangeDigest> digest(MongoCollection<BsonDocument> collection, IdRange range) {
+    return aggregateDigest(collection, range, true)
+        .onErrorResume(
+            CollectionVerifier::isUnsupportedExpression,
+            e -> {
+              logger.warn(
+                  "Server cannot hash documents ({}), comparing counts and sizes only",
+                  e.getMessage());
+              return aggregateDigest(collection, range, false);
+            });
+  }
+
+  private static Mono<RangeDigest> aggregateDigest(
+      MongoCollection<BsonDocument> collection, IdRange range, boolean hashed) {
+    return Flux.from(collection.aggregate(digestPipeline(range, hashed), BsonDocument.class))
+        .next()
+        .map(RangeDigest::fromDocument)
+        .defaultIfEmpty(RangeDigest.EMPTY);
+  }
+
+  static List<Bson> digestPipeline(IdRange range, boolean hashed) {
+    BsonDocument group =
+        new BsonDocument("_id", BsonNull.VALUE)
+            .append("count", new BsonDocument("$sum", new BsonInt32(1)))
+            .append(
+                "bytes",
+                new BsonDocument("$sum", new BsonDocument("$bsonSize", new BsonString("$$ROOT"))));
+    if (hashed) {
+      BsonDocument hash =
+          new BsonDocument(
+              "$mod",
+              new BsonArray(
+                  List.of(
+                      new BsonDocument("$toHashedIndexKey", new BsonString("$$ROOT")),
+                      new BsonInt64(HASH_MODULUS))));
+      group.append("hash", new BsonDocument("$sum", hash));
+    }
+    return List.of(Aggregates.match(range.toFilter()), new BsonDocument("$group", group));
+  }
+
+  /**
+   * @param sourceCount exact document count of the whole source collection, so that documents
+   *     outside the planned ranges still show up in the count delta
+   */
+  static VerificationReport rangeReport(
+      String collectionName,
+      List<Tuple3<IdRange, RangeDigest, RangeDigest>> results,
+      long sourceCount,
+      long destinationCount) {
+    long documents = 0;
+    List<RangeMismatch> mismatches = new ArrayList<>();
+    for (Tuple3<IdRange, RangeDigest, RangeDigest> result : results) {
+      documents += result.getT2().getCount();
+      if (!result.getT2().matches(result.getT3())) {
+        mismatches.add(new RangeMismatch(result.getT1(), result.getT2(), result.getT3()));
+      }
+    }
+    return VerificationReport.builder()
+        .collectionName(collectionName)
+        .mode("ranges")
+        .rangesChecked(results.size())
+        .documentsChecked(documents)
+        .countDelta(destinationCount - sourceCount)
+        .mismatches(mismatches)
+        .build();
+  }
+
+  private static boolean isUnsupportedExpression(Throwable e) {
+    return e instanceof MongoCommandException
+        && ((MongoCommandException) e).getErrorCode() == INVALID_PIPELINE_OPERATOR;
+  }
+
+  private static void log(VerificationReport report) {
+    if (report.isMatch()) {
+      logger.info(
+          "Verified {} ({}): {} documents match",
+          report.getCollectionName(),
+          report.getMode(),
+          report.getDocumentsChecked());
+    } else {
+      logger.warn(
+          "Verification of {} ({}) found differences: count delta {}, {} mismatched ranges {}, "
+              + "{} missing and {} different sampled documents",
+          report.getCollectionName(),
+          report.getMode(),
+          report.getCountDelta(),
+          report.getMismatches().size(),
+          report.getMismatches(),
+          report.getMissingDocuments(),
+          report.getDifferentDocuments());
+    }
+  }
+}
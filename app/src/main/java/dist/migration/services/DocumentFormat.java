@@ -0,0 +1,115 @@
+package dist.migration.services;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * How documents are represented while they move through the copy pipeline. {@link #RAW} keeps the
+ * BSON bytes read from the source and writes them back untouched, avoiding the decode/re-encode
+ * round trip of {@link #DOCUMENT}.
+ */
+public final class DocumentFormat<T> {
+
+  public static final DocumentFormat<Document> DOCUMENT =
+      new DocumentFormat<>(
+          "document",
+          MongoDatabase::getCollection,
+          DocumentFormat::bsonSize,
+          doc ->
+              new Document("_id", doc.get("_id"))
+                  .toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry())
+                  .get("_id"),
+          doc ->
+              new RawBsonDocument(
+                  doc, MongoClientSettings.getDefaultCodecRegistry().get(Document.class)),
+          raw -> raw.decode(MongoClientSettings.getDefaultCodecRegistry().get(Document.class)));
+
+  public static final DocumentFormat<RawBsonDocument> RAW =
+      new DocumentFormat<>(
+          "raw",
+          (database, name) -> database.getCollection(name, RawBsonDocument.class),
+          doc -> doc.getByteBuffer().remaining(),
+          doc -> doc.get("_id"),
+          Function.identity(),
+          Function.identity());
+
+  // Reused per thread for measuring; dropped when a huge document has grown it.
+  private static final ThreadLocal<BasicOutputBuffer> SIZE_BUFFER =
+      ThreadLocal.withInitial(BasicOutputBuffer::new);
+  private static final int MAX_RETAINED_SIZE_BUFFER = 1024 * 1024;
+
+  private final String name;
+  private final BiFunction<MongoDatabase, String, MongoCollection<T>> collectionFactory;
+  private final ToLongFunction<T> sizeOf;
+  private final Function<T, BsonValue> idOf;
+  private final Function<T, RawBsonDocument> toRaw;
+  private final Function<RawBsonDocument, T> fromRaw;
+
+  private DocumentFormat(
+      String name,
+      BiFunction<MongoDatabase, String, MongoCollection<T>> collectionFactory,
+      ToLongFunction<T> sizeOf,
+      Function<T, BsonValue> idOf,
+      Function<T, RawBsonDocument> toRaw,
+      Function<RawBsonDocument, T> fromRaw) {
+    this.name = name;
+    this.collectionFactory = collectionFactory;
+    this.sizeOf = sizeOf;
+    this.idOf = idOf;
+    this.toRaw = toRaw;
+    this.fromRaw = fromRaw;
+  }
+
+  public MongoCollection<T> getCollection(MongoDatabase database, String collectionName) {
+    return collectionFactory.apply(database, collectionName);
+  }
+
+  public long sizeOf(T document) {
+    return sizeOf.applyAsLong(document);
+  }
+
+  public BsonValue idOf(T document) {
+    return idOf.apply(document);
+  }
+
+  /** The document's BSON bytes, encoding it only when it is not already raw. */
+  public RawBsonDocument toRaw(T document) {
+    return toRaw.apply(document);
+  }
+
+  public T fromRaw(RawBsonDocument document) {
+    return fromRaw.apply(document);
+  }
+
+  /** Encoded BSON size, the number batching and the wire message limit are about. */
+  private static long bsonSize(Document document) {
+    BasicOutputBuffer buffer = SIZE_BUFFER.get();
+    buffer.truncateToPosition(0);
+    try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+      MongoClientSettings.getDefaultCodecRegistry()
+          .get(Document.class)
+          .encode(writer, document, EncoderContext.builder().build());
+    }
+    int size = buffer.getPosition();
+    if (buffer.getInternalBuffer().length > MAX_RETAINED_SIZE_BUFFER) {
+      SIZE_BUFFER.remove();
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
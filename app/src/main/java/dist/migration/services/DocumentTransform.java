@@ -0,0 +1,59 @@
+package dist.migration.services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import org.bson.Document;
+
+/**
+ * Drops, renames and sets top-level fields of a document in place. {@code _id} cannot be touched
+ * because checkpoints and resumption rely on it.
+ */
+public class DocumentTransform implements UnaryOperator<Document> {
+
+  private final List<String> drop;
+  private final Map<String, String> rename;
+  private final Map<String, Object> set;
+
+  public DocumentTransform(List<String> drop, Map<String, String> rename, Map<String, Object> set) {
+    this.drop = drop == null ? List.of() : drop;
+    this.rename = rename == null ? Map.of() : rename;
+    this.set = set == null ? Map.of() : set;
+    if (this.drop.contains("_id")
+        || this.rename.containsKey("_id")
+        || this.rename.containsValue("_id")
+        || this.set.containsKey("_id")) {
+      throw new IllegalArgumentException("Transforms cannot drop, rename or set _id");
+    }
+  }
+
+  public List<String> getDrop() {
+    return drop;
+  }
+
+  public Map<String, String> getRename() {
+    return rename;
+  }
+
+  public Map<String, Object> getSet() {
+    return set;
+  }
+
+  public boolean isEmpty() {
+    return drop.isEmpty() && rename.isEmpty() && set.isEmpty();
+  }
+
+  @Override
+  public Document apply(Document document) {
+    for (String field : drop) {
+      document.remove(field);
+    }
+    for (Map.Entry<String, String> field : rename.entrySet()) {
+      if (document.containsKey(field.getKey())) {
+        document.put(field.getValue(), document.remove(field.getKey()));
+      }
+    }
+    document.putAll(set);
+    return document;
+  }
+}
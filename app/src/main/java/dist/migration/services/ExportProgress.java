@@ -0,0 +1,60 @@
+package dist.migration.services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import lombok.Getter;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+/**
+ * How far a stopped export got: the segments finished and the last {@code _id} they hold. The
+ * export reads in {@code _id} order, so the next one keeps those segments and continues after that
+ * {@code _id}. Only valid for an export with the same filter.
+ */
+@Getter
+public class ExportProgress {
+
+  private final String filterHash;
+  private final int segments;
+  private final BsonValue lastId;
+
+  public ExportProgress(String filterHash, int segments, BsonValue lastId) {
+    this.filterHash = filterHash;
+    this.segments = segments;
+    this.lastId = lastId;
+  }
+
+  /** The saved progress, or null when there is none. */
+  public static ExportProgress load(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    BsonDocument document = BsonDocument.parse(Files.readString(file));
+    return new ExportProgress(
+        document.isString("filterHash") ? document.getString("filterHash").getValue() : null,
+        document.getInt32("segments").getValue(),
+        document.get("lastId"));
+  }
+
+  /** Replaces the file in one step, so a stop at any point leaves the old or the new progress. */
+  public void save(Path file) throws IOException {
+    BsonValue hash = filterHash == null ? BsonNull.VALUE : new BsonString(filterHash);
+    BsonDocument document =
+        new BsonDocument("filterHash", hash)
+            .append("segments", new BsonInt32(segments))
+            .append("lastId", lastId);
+    Path written = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.writeString(
+        written,
+        document.toJson(JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build()));
+    Files.move(
+        written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
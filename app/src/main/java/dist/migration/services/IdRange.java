@@ -0,0 +1,92 @@
+package dist.migration.services;
+
+import com.mongodb.client.model.Filters;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+/** A half-open {@code _id} interval; a {@code null} bound leaves that side unbounded. */
+@Getter
+public class IdRange {
+  // BSON comparison order of the types an _id can have. Range operators only match values of the
+  // same class as their operand, with all numeric types comparing as one class.
+  private static final List<List<BsonType>> TYPE_CLASSES =
+      List.of(
+          List.of(BsonType.MIN_KEY),
+          List.of(BsonType.NULL),
+          List.of(BsonType.INT32, BsonType.INT64, BsonType.DOUBLE, BsonType.DECIMAL128),
+          List.of(BsonType.SYMBOL, BsonType.STRING),
+          List.of(BsonType.DOCUMENT),
+          List.of(BsonType.BINARY),
+          List.of(BsonType.OBJECT_ID),
+          List.of(BsonType.BOOLEAN),
+          List.of(BsonType.DATE_TIME),
+          List.of(BsonType.TIMESTAMP),
+          List.of(BsonType.REGULAR_EXPRESSION),
+          List.of(BsonType.MAX_KEY));
+
+  private final int index;
+  private final int count;
+  private final BsonValue lowerBound;
+  private final BsonValue upperBound;
+
+  public IdRange(int index, int count, BsonValue lowerBound, BsonValue upperBound) {
+    this.index = index;
+    this.count = count;
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+  }
+
+  public Bson toFilter() {
+    if (lowerBound == null && upperBound == null) {
+      return new BsonDocument();
+    }
+    if (lowerBound == null) {
+      return Filters.lt("_id", upperBound);
+    }
+    if (upperBound == null) {
+      return Filters.gte("_id", lowerBound);
+    }
+    return Filters.and(Filters.gte("_id", lowerBound), Filters.lt("_id", upperBound));
+  }
+
+  /** Position of the value's type class in the BSON sort order, or -1 for other types. */
+  static int typeClass(BsonValue value) {
+    for (int i = 0; i < TYPE_CLASSES.size(); i++) {
+      if (TYPE_CLASSES.get(i).contains(value.getBsonType())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Matches every {@code _id} sorting after {@code lastId}, including those of types that sort
+   * after its type, which {@code $gt} alone would skip.
+   */
+  public static Bson after(BsonValue lastId) {
+    int typeClass = typeClass(lastId);
+    if (typeClass < 0) {
+      return Filters.gt("_id", lastId);
+    }
+    List<BsonValue> laterTypes =
+        TYPE_CLASSES.subList(typeClass + 1, TYPE_CLASSES.size()).stream()
+            .flatMap(List::stream)
+            .map(type -> new BsonInt32(type.getValue()))
+            .collect(Collectors.toList());
+    return Filters.or(
+        Filters.gt("_id", lastId),
+        new BsonDocument("_id", new BsonDocument("$type", new BsonArray(laterTypes))));
+  }
+
+  @Override
+  public String toString() {
+    return (index + 1) + "/" + count + " [" + lowerBound + ", " + upperBound + ")";
+  }
+}
@@ -0,0 +1,99 @@
+package dist.migration.services;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Splits a collection into contiguous {@code _id} ranges using boundaries taken from a random
+ * sample, so planning costs a bounded number of reads regardless of collection size. Range queries
+ * only match {@code _id}s of the same BSON type class as the boundaries, so a collection whose
+ * lowest and highest {@code _id} differ in type class is copied as one unbounded partition.
+ */
+public class IdRangePlanner {
+
+  private static final Logger logger = LoggerFactory.getLogger(IdRangePlanner.class);
+
+  static final int SAMPLES_PER_PARTITION = 64;
+
+  private IdRangePlanner() {}
+
+  public static Mono<List<IdRange>> plan(MongoCollection<?> collection, int partitions) {
+    if (partitions <= 1) {
+      return Mono.just(fromBoundaries(List.of()));
+    }
+    // _id sorts by type class first, so the ends of the index show whether the types are mixed.
+    return Mono.zip(
+            endId(collection, Sorts.ascending("_id")), endId(collection, Sorts.descending("_id")))
+        .flatMap(
+            ends -> {
+              int lowest = IdRange.typeClass(ends.getT1());
+              if (lowest >= 0 && lowest == IdRange.typeClass(ends.getT2())) {
+                return sample(collection, partitions);
+              }
+              logger.warn(
+                  "_id types differ between {} and {}, copying with a single partition",
+                  ends.getT1(),
+                  ends.getT2());
+              return Mono.just(fromBoundaries(List.of()));
+            })
+        .defaultIfEmpty(fromBoundaries(List.of()));
+  }
+
+  private static Mono<BsonValue> endId(MongoCollection<?> collection, Bson sort) {
+    return Mono.from(
+            collection
+                .find(new BsonDocument(), BsonDocument.class)
+                .sort(sort)
+                .projection(Projections.include("_id"))
+                .first())
+        .map(document -> document.get("_id"));
+  }
+
+  private static Mono<List<IdRange>> sample(MongoCollection<?> collection, int partitions) {
+    return Flux.from(
+            collection.aggregate(
+                List.of(
+                    Aggregates.sample(partitions * SAMPLES_PER_PARTITION),
+                    Aggregates.project(Projections.include("_id")),
+                    Aggregates.bucketAuto("$_id", partitions)),
+                BsonDocument.class))
+        .map(bucket -> bucket.getDocument("_id").get("min"))
+        .collectList()
+        .map(
+            mins -> {
+              // The first bucket's minimum is replaced by an open lower bound so that documents
+              // outside the sample are still covered.
+              List<BsonValue> boundaries = new ArrayList<>();
+              for (int i = 1; i < mins.size(); i++) {
+                BsonValue boundary = mins.get(i);
+                if (!boundaries.contains(boundary)) {
+                  boundaries.add(boundary);
+                }
+              }
+              return fromBoundaries(boundaries);
+            });
+  }
+
+  static List<IdRange> fromBoundaries(List<BsonValue> boundaries) {
+    int count = boundaries.size() + 1;
+    List<IdRange> ranges = new ArrayList<>(count);
+    BsonValue lower = null;
+    for (int i = 0; i < count; i++) {
+      BsonValue upper = i < boundaries.size() ? boundaries.get(i) : null;
+      ranges.add(new IdRange(i, count, lower, upper));
+      lower = upper;
+    }
+    return ranges;
+  }
+}
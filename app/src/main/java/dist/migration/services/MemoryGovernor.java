@@ -0,0 +1,143 @@
+package dist.migration.services;
+
+import dist.migration.configs.DatabaseProperties;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Caps the bytes of batches that have been read but not yet written, shared by every cursor of an
+ * invocation. A batch waits in {@link #acquire} until its bytes fit, which holds back the source
+ * cursor; a batch larger than the whole budget is let through alone. Waiters are served in order.
+ */
+public class MemoryGovernor {
+
+  private static final Logger logger = LoggerFactory.getLogger(MemoryGovernor.class);
+
+  private final long budgetBytes;
+  private final Deque<Waiter> waiters = new ArrayDeque<>();
+  private final long startNanos = System.nanoTime();
+  private long inFlightBytes;
+  private long peakBytes;
+  private long lastChangeNanos = startNanos;
+  // Sum of buffered bytes times nanoseconds, for the time-weighted average.
+  private double byteNanos;
+
+  MemoryGovernor(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+  }
+
+  public static MemoryGovernor unlimited() {
+    return new MemoryGovernor(Long.MAX_VALUE);
+  }
+
+  /**
+   * A governor for an invocation with the given memory, using {@code memoryBudgetBytes} when set
+   * and otherwise {@code memoryBudgetFraction} of the smaller of that memory and the JVM heap.
+   */
+  public static MemoryGovernor of(DatabaseProperties properties, long memoryLimitBytes) {
+    long budget = properties.getMemoryBudgetBytes();
+    if (budget <= 0) {
+      long memory = Math.min(memoryLimitBytes, Runtime.getRuntime().maxMemory());
+      budget = (long) (memory * properties.getMemoryBudgetFraction());
+    }
+    logger.info("In-flight batches are limited to {} bytes", budget);
+    return new MemoryGovernor(Math.max(1, budget));
+  }
+
+  public boolean isUnlimited() {
+    return budgetBytes == Long.MAX_VALUE;
+  }
+
+  /** Completes once {@code bytes} more may be held; pair every acquire with a release. */
+  public Mono<Void> acquire(long bytes) {
+    return Mono.create(
+        sink -> {
+          Waiter waiter = new Waiter(bytes, sink);
+          synchronized (this) {
+            if (waiters.isEmpty() && fits(bytes)) {
+              add(bytes);
+              waiter.granted = true;
+            } else {
+              waiters.add(waiter);
+            }
+          }
+          if (waiter.granted) {
+            sink.success();
+          } else {
+            sink.onCancel(() -> cancel(waiter));
+          }
+        });
+  }
+
+  public void release(long bytes) {
+    List<Waiter> ready = new ArrayList<>();
+    synchronized (this) {
+      add(-bytes);
+      while (!waiters.isEmpty() && fits(waiters.peek().bytes)) {
+        Waiter waiter = waiters.poll();
+        add(waiter.bytes);
+        waiter.granted = true;
+        ready.add(waiter);
+      }
+    }
+    ready.forEach(waiter -> waiter.sink.success());
+  }
+
+  private void cancel(Waiter waiter) {
+    boolean granted;
+    synchronized (this) {
+      granted = !waiters.remove(waiter) && waiter.granted;
+    }
+    if (granted) {
+      release(waiter.bytes);
+    }
+  }
+
+  private boolean fits(long bytes) {
+    return inFlightBytes == 0 || inFlightBytes + bytes <= budgetBytes;
+  }
+
+  private void add(long bytes) {
+    long now = System.nanoTime();
+    byteNanos += (double) inFlightBytes * (now - lastChangeNanos);
+    lastChangeNanos = now;
+    inFlightBytes += bytes;
+    peakBytes = Math.max(peakBytes, inFlightBytes);
+  }
+
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  public synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+
+  public synchronized long getPeakBytes() {
+    return peakBytes;
+  }
+
+  /** Buffered bytes averaged over the governor's lifetime. */
+  public synchronized long getAverageBytes() {
+    long now = System.nanoTime();
+    double total = byteNanos + (double) inFlightBytes * (now - lastChangeNanos);
+    return now == startNanos ? inFlightBytes : (long) (total / (now - startNanos));
+  }
+
+  private static final class Waiter {
+    private final long bytes;
+    private final MonoSink<Void> sink;
+    private boolean granted;
+
+    private Waiter(long bytes, MonoSink<Void> sink) {
+      this.bytes = bytes;
+      this.sink = sink;
+    }
+  }
+}
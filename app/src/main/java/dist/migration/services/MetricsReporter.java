@@ -0,0 +1,89 @@
+package dist.migration.services;
+
+import dist.migration.metrics.EmbeddedMetrics;
+import dist.migration.metrics.Histogram;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+/**
+ * Periodically writes the progress of one migration run as CloudWatch Embedded Metric Format. The
+ * rates and wait times cover the interval since the previous report; comparing CursorWaitMillis
+ * with WriteWaitMillis shows whether the source or the destination is holding the copy back.
+ */
+public class MetricsReporter {
+
+  // Routed to an appender that writes the bare message, so CloudWatch can parse the JSON.
+  private static final Logger metricsLogger = LoggerFactory.getLogger("dist.migration.metrics.EMF");
+  private static final String MILLISECONDS = "Milliseconds";
+
+  private final MigrationStats stats;
+  private final String namespace;
+  private final String database;
+  private final String collection;
+  private Disposable ticker;
+  private long lastNanos;
+  private long lastDocuments;
+  private long lastBytes;
+  private long lastReadMicros;
+  private long lastWriteMicros;
+
+  public MetricsReporter(
+      MigrationStats stats, String namespace, String database, String collection) {
+    this.stats = stats;
+    this.namespace = namespace;
+    this.database = database;
+    this.collection = collection;
+  }
+
+  public void start(long intervalMillis) {
+    lastNanos = System.nanoTime();
+    if (intervalMillis > 0) {
+      ticker = Flux.interval(Duration.ofMillis(intervalMillis)).subscribe(tick -> report());
+    }
+  }
+
+  /** Stops the periodic reports and writes a final one. */
+  public void stop() {
+    if (ticker != null) {
+      ticker.dispose();
+    }
+    report();
+  }
+
+  synchronized void report() {
+    long now = System.nanoTime();
+    double seconds = Math.max(1, now - lastNanos) / 1e9;
+    long documents = stats.getDocuments().get();
+    long bytes = stats.getBytes().get();
+    Histogram reads = stats.getBatchReadMicros();
+    Histogram writes = stats.getBatchWriteMicros();
+    long readMicros = reads.getSum();
+    long writeMicros = writes.getSum();
+
+    String json =
+        new EmbeddedMetrics(namespace)
+            .dimension("Database", database)
+            .dimension("Collection", collection)
+            .put("DocumentsPerSecond", (documents - lastDocuments) / seconds, "Count/Second")
+            .put("BytesPerSecond", (bytes - lastBytes) / seconds, "Bytes/Second")
+            .put("InFlightWrites", stats.getInFlightWrites().get(), "Count")
+            .put("ReadBatchP50Millis", reads.percentile(50) / 1000.0, MILLISECONDS)
+            .put("ReadBatchP99Millis", reads.percentile(99) / 1000.0, MILLISECONDS)
+            .put("WriteBatchP50Millis", writes.percentile(50) / 1000.0, MILLISECONDS)
+            .put("WriteBatchP99Millis", writes.percentile(99) / 1000.0, MILLISECONDS)
+            .put("CursorWaitMillis", (readMicros - lastReadMicros) / 1000, MILLISECONDS)
+            .put("WriteWaitMillis", (writeMicros - lastWriteMicros) / 1000, MILLISECONDS)
+            .put("DocumentsMigrated", documents, "Count")
+            .toJson(System.currentTimeMillis());
+    metricsLogger.info(json);
+
+    lastNanos = now;
+    lastDocuments = documents;
+    lastBytes = bytes;
+    lastReadMicros = readMicros;
+    lastWriteMicros = writeMicros;
+  }
+}
@@ -0,0 +1,88 @@
+package dist.migration.services;
+
+import dist.migration.metrics.Histogram;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+
+/** Progress, limits and outcome of one migration run. */
+@Getter
+public class MigrationStats {
+  private final TimeBudget budget;
+  private final SourceRateLimiter rateLimiter;
+  private final MemoryGovernor memoryGovernor;
+  private final String continuationToken;
+  private final AtomicLong documents = new AtomicLong();
+  // Documents already in the destination, with the skipDuplicates and upsert write modes.
+  private final AtomicLong skippedDocuments = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final Histogram batchDocuments = new Histogram();
+  private final Histogram batchBytes = new Histogram();
+  // Time spent waiting on the source cursor to fill each batch, and on insertMany per batch.
+  private final Histogram batchReadMicros = new Histogram();
+  private final Histogram batchWriteMicros = new Histogram();
+  private final AtomicInteger inFlightWrites = new AtomicInteger();
+  private final AtomicInteger peakInFlightWrites = new AtomicInteger();
+  private final AtomicBoolean stopped = new AtomicBoolean();
+  private final AtomicLong replicationLagSeconds = new AtomicLong(-1);
+  private final AtomicLong indexBuildMillis = new AtomicLong();
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong firstBatchMillis = new AtomicLong(-1);
+
+  public MigrationStats() {
+    this(TimeBudget.unlimited(), null);
+  }
+
+  public MigrationStats(TimeBudget budget, String continuationToken) {
+    this(budget, continuationToken, SourceRateLimiter.unlimited());
+  }
+
+  public MigrationStats(
+      TimeBudget budget, String continuationToken, SourceRateLimiter rateLimiter) {
+    this(budget, continuationToken, rateLimiter, MemoryGovernor.unlimited());
+  }
+
+  public MigrationStats(
+      TimeBudget budget,
+      String continuationToken,
+      SourceRateLimiter rateLimiter,
+      MemoryGovernor memoryGovernor) {
+    this.budget = budget;
+    this.rateLimiter = rateLimiter;
+    this.memoryGovernor = memoryGovernor;
+    this.continuationToken = continuationToken;
+  }
+
+  public void recordBatch(Batch<?> batch) {
+    firstBatchMillis.compareAndSet(-1, (System.nanoTime() - startNanos) / 1_000_000);
+    bytes.addAndGet(batch.getBytes());
+    batchDocuments.record(batch.size());
+    batchBytes.record(batch.getBytes());
+  }
+
+  public void writeStarted() {
+    peakInFlightWrites.accumulateAndGet(inFlightWrites.incrementAndGet(), Math::max);
+  }
+
+  public void writeFinished() {
+    inFlightWrites.decrementAndGet();
+  }
+
+  public long getElapsedMillis() {
+    return (System.nanoTime() - startNanos) / 1_000_000;
+  }
+
+  public long addDocuments(long count) {
+    return documents.addAndGet(count);
+  }
+
+  /** Returns {@code true} for the first caller only. */
+  public boolean markStopped() {
+    return stopped.compareAndSet(false, true);
+  }
+
+  public boolean isCompleted() {
+    return !stopped.get();
+  }
+}
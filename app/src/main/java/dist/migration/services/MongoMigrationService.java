@@ -1,196 +1,1356 @@
 package dist.migration.services;
 
-import com.mongodb.client.model.IndexOptions;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.reactivestreams.client.FindPublisher;
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import com.mongodb.reactivestreams.client.MongoDatabase;
-import java.nio.charset.StandardCharsets;
+import dist.migration.configs.CollectionProperties;
+import dist.migration.configs.DatabaseProperties;
+import dist.migration.configs.WriteMode;
+import dist.migration.configs.WriteProfile;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 public class MongoMigrationService {
 
   private static final Logger logger = LoggerFactory.getLogger(MongoMigrationService.class);
-  public static final int BATCH_SIZE = 400;
+  public static final String MIGRATION_METADATA_COLLECTION = "_migration";
+  private static final int DUPLICATE_KEY = 11000;
+  private static final InsertManyOptions BULK_LOAD_INSERT_OPTIONS =
+      new InsertManyOptions().ordered(false).bypassDocumentValidation(true);
 
   private final MongoClient sourceClient;
   private final MongoClient destClient;
   private final String sourceDbName;
   private final String destDbName;
+  private final DatabaseProperties properties;
+  private final ByteBudgetBatcher batcher;
+  private final MemoryGovernor memoryGovernor;
+  // Shared by the spill buffers of every cursor, so together they stay under spillMaxDiskBytes.
+  private final SpillDiskBudget spillDisk;
+  private Mono<Boolean> sameDeployment;
 
   public MongoMigrationService(
       MongoClient sourceClient,
       String sourceDatabase,
       MongoClient destClient,
       String destinationDatabase) {
+    this(sourceClient, sourceDatabase, destClient, destinationDatabase, new DatabaseProperties());
+  }
+
+  // The clients belong to the caller and are not closed here, so they can be reused across calls.
+  public MongoMigrationService(
+      MongoClient sourceClient,
+      String sourceDatabase,
+      MongoClient destClient,
+      String destinationDatabase,
+      DatabaseProperties properties) {
+    this(
+        sourceClient,
+        sourceDatabase,
+        destClient,
+        destinationDatabase,
+        properties,
+        MemoryGovernor.of(properties, Runtime.getRuntime().maxMemory()));
+  }
+
+  /** @param memoryGovernor limits the batches held in memory across every copy of this service */
+  public MongoMigrationService(
+      MongoClient sourceClient,
+      String sourceDatabase,
+      MongoClient destClient,
+      String destinationDatabase,
+      DatabaseProperties properties,
+      MemoryGovernor memoryGovernor) {
     this.sourceClient = sourceClient;
     this.destClient = destClient;
     this.sourceDbName = sourceDatabase;
     this.destDbName = destinationDatabase;
+    this.properties = properties;
+    this.batcher =
+        new ByteBudgetBatcher(properties.getMaxBatchBytes(), properties.getMaxBatchDocuments());
+    this.memoryGovernor = memoryGovernor;
+    this.spillDisk = new SpillDiskBudget(properties.getSpillMaxDiskBytes());
   }
 
-  public Mono<Void> migrateCollection(String collectionName) {
+  public Mono<MigrationStats> migrateCollection(String collectionName) {
+    return migrateCollection(collectionName, TimeBudget.unlimited());
+  }
+
+  public Mono<MigrationStats> migrateCollection(String collectionName, TimeBudget budget) {
+    return migrateCollection(collectionName, budget, null);
+  }
+
+  /**
+   * @param overrides per-invocation filter, projection and transforms, taking priority over the
+   *     collection's settings in the database configuration; may be null
+   */
+  public Mono<MigrationStats> migrateCollection(
+      String collectionName, TimeBudget budget, CollectionProperties overrides) {
     long startTime = System.currentTimeMillis();
+    CollectionOptions options = collectionOptions(collectionName, overrides);
     MongoDatabase sourceDb = sourceClient.getDatabase(sourceDbName);
     MongoDatabase destDb = destClient.getDatabase(destDbName);
 
-    MongoCollection<Document> sourceCollection = sourceDb.getCollection(collectionName);
-    MongoCollection<Document> destCollection = destDb.getCollection(collectionName);
+    SourceRateLimiter rateLimiter = SourceRateLimiter.of(properties);
+    MigrationStats stats =
+        new MigrationStats(budget, continuationToken(collectionName), rateLimiter, memoryGovernor);
+    if (!budget.isUnlimited() && !properties.isCheckpointing()) {
+      logger.warn(
+          "Time budget set for collection {} without checkpointing; a stopped copy cannot resume",
+          collectionName);
+    }
 
-    AtomicLong totalDocumentsMigrated = new AtomicLong(0);
-    AtomicLong totalSizeMigrated = new AtomicLong(0);
+    MetricsReporter metrics =
+        new MetricsReporter(stats, properties.getMetricsNamespace(), destDbName, collectionName);
 
-    return Flux.from(sourceCollection.listIndexes())
-        .collectList()
-        .flatMap(indexes -> createIndices(destCollection, indexes))
-        .thenMany(Flux.from(sourceCollection.find()))
-        .buffer(BATCH_SIZE)
-        .flatMap(
-            batch -> {
-              long batchTotalSize =
-                  batch.stream()
-                      .mapToLong(doc -> doc.toJson().getBytes(StandardCharsets.UTF_8).length)
-                      .sum();
-              totalSizeMigrated.addAndGet(batchTotalSize);
-              return destCollection.insertMany(batch);
+    return recordChangeStreamStart(sourceDb, destDb)
+        .then(copyCollection(sourceDb, destDb, collectionName, options, startTime, stats))
+        .thenReturn(stats)
+        .doOnSubscribe(
+            subscription -> {
+              metrics.start(properties.getMetricsIntervalMillis());
+              rateLimiter.start(sourceDb, properties.getSourceLatencyProbeMillis());
             })
-        .onErrorMap(
-            ex ->
-                new MongoMigrationServiceException(
-                    "Error during data migration for collection: " + collectionName, ex))
-        .doOnNext(
-            insertManyResult -> {
-              long count =
-                  totalDocumentsMigrated.addAndGet(insertManyResult.getInsertedIds().size());
-              logger.info(
-                  "Migrated " + count + " documents so far in collection: " + collectionName);
+        .doFinally(
+            signal -> {
+              rateLimiter.stop();
+              metrics.stop();
             })
-        .then(
-            Mono.fromRunnable(
-                () ->
-                    cleanUp(
-                        startTime,
-                        destDbName,
-                        collectionName,
-                        totalDocumentsMigrated,
-                        totalSizeMigrated)))
-        .then()
         .doOnTerminate(
-            () -> {
-              logger.info("Closing source and dest clients");
-              sourceClient.close();
-              destClient.close();
-              logger.info(
-                  "Migration completed in {} seconds.",
-                  (System.currentTimeMillis() - startTime) / 1000);
-            });
+            () ->
+                logger.info(
+                    "Migration completed in {} seconds.",
+                    (System.currentTimeMillis() - startTime) / 1000));
   }
 
   public Mono<Void> migrate() {
+    return migrateDatabase(List.of(), TimeBudget.unlimited()).then();
+  }
+
+  /**
+   * Migrates every collection matching the given glob patterns (all collections when empty). The
+   * collections are sized up front and started largest first, so the biggest copy does not end up
+   * as a serial tail.
+   */
+  public Mono<MigrationStats> migrateDatabase(List<String> collectionPatterns, TimeBudget budget) {
     long startTime = System.currentTimeMillis();
     MongoDatabase sourceDb = sourceClient.getDatabase(sourceDbName);
     MongoDatabase destDb = destClient.getDatabase(destDbName);
 
-    AtomicLong totalDocumentsMigrated = new AtomicLong(0);
-    AtomicLong totalSizeMigrated = new AtomicLong(0);
+    SourceRateLimiter rateLimiter = SourceRateLimiter.of(properties);
+    MigrationStats stats =
+        new MigrationStats(budget, continuationToken("*"), rateLimiter, memoryGovernor);
+    MetricsReporter metrics =
+        new MetricsReporter(stats, properties.getMetricsNamespace(), destDbName, "*");
 
-    return Flux.from(sourceDb.listCollectionNames())
+    return recordChangeStreamStart(sourceDb, destDb)
+        .thenMany(sourceDb.listCollectionNames())
+        .filter(collectionName -> CollectionPatterns.matches(collectionPatterns, collectionName))
         .flatMap(
-            collectionName -> {
-              MongoCollection<Document> sourceCollection = sourceDb.getCollection(collectionName);
-              MongoCollection<Document> destCollection = destDb.getCollection(collectionName);
-
-              return Flux.from(sourceCollection.listIndexes())
-                  .collectList()
-                  .flatMap(indexes -> createIndices(destCollection, indexes))
-                  .thenMany(Flux.from(sourceCollection.find()))
-                  .buffer(BATCH_SIZE)
-                  .flatMap(
-                      batch -> {
-                        long batchTotalSize =
-                            batch.stream()
-                                .mapToLong(
-                                    doc -> doc.toJson().getBytes(StandardCharsets.UTF_8).length)
-                                .sum();
-                        totalSizeMigrated.addAndGet(batchTotalSize);
-                        return destCollection.insertMany(batch);
-                      })
-                  .onErrorMap(
-                      ex ->
-                          new MongoMigrationServiceException(
-                              "Error during data migration for collection: " + collectionName, ex))
-                  .doOnNext(
-                      insertManyResult -> {
-                        long count =
-                            totalDocumentsMigrated.addAndGet(
-                                insertManyResult.getInsertedIds().size());
-                        logger.info(
-                            "Migrated "
-                                + count
-                                + " documents so far in collection: "
-                                + collectionName);
-                      })
-                  .then(
-                      Mono.fromRunnable(
-                          () ->
-                              cleanUp(
-                                  startTime,
-                                  destDbName,
-                                  collectionName,
-                                  totalDocumentsMigrated,
-                                  totalSizeMigrated)));
-            },
-            2) // 2 collections at a time at most.
-        .then()
+            collectionName ->
+                collectionSize(sourceDb, collectionName)
+                    .map(size -> Tuples.of(collectionName, size)))
+        .collectSortedList(Comparator.comparing(Tuple2<String, Long>::getT2).reversed())
+        .doOnNext(
+            plan ->
+                logger.info(
+                    "Migrating {} collections, largest first, {} at a time: {}",
+                    plan.size(),
+                    properties.getCollectionConcurrency(),
+                    plan))
+        .flatMapMany(Flux::fromIterable)
+        .filter(collection -> stats.isCompleted())
+        .flatMap(
+            collection ->
+                copyCollection(
+                    sourceDb,
+                    destDb,
+                    collection.getT1(),
+                    collectionOptions(collection.getT1(), null),
+                    startTime,
+                    stats),
+            Math.max(1, properties.getCollectionConcurrency()))
+        .then(Mono.just(stats))
+        .doOnSubscribe(
+            subscription -> {
+              metrics.start(properties.getMetricsIntervalMillis());
+              rateLimiter.start(sourceDb, properties.getSourceLatencyProbeMillis());
+            })
+        .doFinally(
+            signal -> {
+              rateLimiter.stop();
+              metrics.stop();
+            })
         .doOnTerminate(
-            () -> {
-              logger.info("Closing source and dest clients");
-              sourceClient.close();
-              destClient.close();
+            () ->
+                logger.info(
+                    "Everything completed in {}.",
+                    (System.currentTimeMillis() - startTime) / 1000));
+  }
+
+  /** Uncompressed data size reported by $collStats, or 0 when it is unavailable. */
+  private Mono<Long> collectionSize(MongoDatabase sourceDb, String collectionName) {
+    Document collStats = new Document("$collStats", new Document("storageStats", new Document()));
+    return Mono.defer(
+            () ->
+                Flux.from(
+                        sourceDb
+                            .getCollection(collectionName)
+                            .aggregate(List.of(collStats), BsonDocument.class))
+                    .next())
+        .map(result -> result.getDocument("storageStats").getNumber("size").longValue())
+        .onErrorResume(
+            e -> {
+              logger.warn("Could not size collection {}: {}", collectionName, e.getMessage());
+              return Mono.empty();
+            })
+        .defaultIfEmpty(0L);
+  }
+
+  /**
+   * Replays changes made on the source since the snapshot copy started, until caught up or the
+   * budget runs out. Only collections matching the glob patterns are replayed, all of them when
+   * empty.
+   */
+  public Mono<MigrationStats> tailChanges(List<String> collectionPatterns, TimeBudget budget) {
+    MongoDatabase sourceDb = sourceClient.getDatabase(sourceDbName);
+    MongoDatabase destDb = destClient.getDatabase(destDbName);
+    if (properties.getCollections() != null) {
+      properties
+          .getCollections()
+          .forEach((name, collection) -> requireReplayable(name, CollectionOptions.of(collection)));
+    }
+    MigrationStats stats = new MigrationStats(budget, ChangeStreamTailer.STATE_ID);
+
+    return requireDistinctDatabases()
+        .then(
+            new ChangeStreamTailer(sourceDb, destDb, properties, collectionPatterns).tail(stats))
+        .doOnSuccess(
+            result ->
+                logger.info(
+                    "Change stream tailing applied {} events, lag {} seconds, caught up: {}",
+                    result.getDocuments().get(),
+                    result.getReplicationLagSeconds().get(),
+                    result.isCompleted()));
+  }
+
+  /**
+   * Compares the collection between source and destination, digesting every {@code _id} range or,
+   * when {@code sampled}, checking a random sample of documents.
+   */
+  public Mono<VerificationReport> verifyCollection(String collectionName, boolean sampled) {
+    CollectionVerifier verifier =
+        new CollectionVerifier(
+            sourceClient.getDatabase(sourceDbName), destClient.getDatabase(destDbName), properties);
+    return sampled
+        ? verifier.verifySample(collectionName)
+        : verifier.verifyRanges(collectionName);
+  }
+
+  private Mono<Void> recordChangeStreamStart(MongoDatabase sourceDb, MongoDatabase destDb) {
+    if (!properties.isChangeStreams()) {
+      return Mono.empty();
+    }
+    return new ChangeStreamTailer(sourceDb, destDb, properties).recordStart();
+  }
+
+  // Without checkpoints a stopped copy starts over, so there is nothing to continue from.
+  private String continuationToken(String collectionName) {
+    return properties.isCheckpointing() ? CheckpointStore.continuationToken(collectionName) : null;
+  }
+
+  private CollectionOptions collectionOptions(
+      String collectionName, CollectionProperties overrides) {
+    Map<String, CollectionProperties> configured = properties.getCollections();
+    CollectionProperties collection =
+        configured == null ? null : configured.get(collectionName);
+    if (collection == null && overrides == null) {
+      return CollectionOptions.NONE;
+    }
+    CollectionOptions options =
+        CollectionOptions.of(
+            (collection == null ? new CollectionProperties() : collection).overriddenBy(overrides));
+    requireReplayable(collectionName, options);
+    requireResumable(collectionName, options);
+    return options;
+  }
+
+  // Change events are replayed as they are, without the snapshot's filter, projection or
+  // transforms, so the two would disagree on what the destination holds.
+  private void requireReplayable(String collectionName, CollectionOptions options) {
+    if (properties.isChangeStreams() && !options.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Collection "
+              + collectionName
+              + " has a filter, projection or transforms, which change streams do not apply;"
+              + " disable changeStreams to copy it");
+    }
+  }
+
+  // A resumed partition can only clear what an earlier invocation wrote past its checkpoint when
+  // the filter finds those documents in the destination; otherwise they are written again.
+  private void requireResumable(String collectionName, CollectionOptions options) {
+    if (properties.isCheckpointing()
+        && !options.filterMatchesDestination()
+        && properties.getWriteMode() == WriteMode.insert) {
+      throw new IllegalArgumentException(
+          "Collection "
+              + collectionName
+              + " has a filter together with a projection or transforms, so a resumed copy"
+              + " cannot tell which destination documents it wrote; use the skipDuplicates or"
+              + " upsert writeMode to checkpoint it");
+    }
+  }
+
+  private DocumentFormat<?> documentFormat(String collectionName, CollectionOptions options) {
+    if (options.getTransform() != null) {
+      if (properties.isRawBsonPassThrough()) {
+        logger.info(
+            "Collection {} has transforms, copying it as decoded documents", collectionName);
+      }
+      return DocumentFormat.DOCUMENT;
+    }
+    return properties.isRawBsonPassThrough() ? DocumentFormat.RAW : DocumentFormat.DOCUMENT;
+  }
+
+  private Mono<Void> copyCollection(
+      MongoDatabase sourceDb,
+      MongoDatabase destDb,
+      String collectionName,
+      CollectionOptions options,
+      long startTime,
+      MigrationStats stats) {
+    Mono<Void> streamed =
+        Mono.defer(
+            () ->
+                copyCollection(
+                    documentFormat(collectionName, options),
+                    sourceDb,
+                    destDb,
+                    collectionName,
+                    options,
+                    startTime,
+                    stats));
+    if (!properties.isServerSideCopy()) {
+      return requireDistinctDatabases().then(streamed);
+    }
+    return requireDistinctDatabases()
+        .then(sameDeployment())
+        .flatMap(
+            same ->
+                same
+                    ? copyServerSide(sourceDb, destDb, collectionName, options, startTime, stats)
+                    : streamed);
+  }
+
+  // Copying a database onto itself would have $merge, the checkpoint cleanup and the change
+  // replay write into the very collections being read.
+  private Mono<Void> requireDistinctDatabases() {
+    if (!sourceDbName.equals(destDbName)) {
+      return Mono.empty();
+    }
+    return sameDeployment()
+        .flatMap(
+            same ->
+                same
+                    ? Mono.error(
+                        new IllegalArgumentException(
+                            "Source and destination are the same database "
+                                + sourceDbName
+                                + " on the same deployment; configure a different"
+                                + " destinationDatabase"))
+                    : Mono.empty());
+  }
+
+  private Mono<Boolean> sameDeployment() {
+    if (sameDeployment == null) {
+      sameDeployment =
+          ServerSideCopy.sameDeployment(
+                  sourceClient.getDatabase("admin"), destClient.getDatabase("admin"))
+              .doOnNext(
+                  same ->
+                      logger.info(
+                          same
+                              ? "Source and destination are the same deployment"
+                              : "Source and destination are different deployments"))
+              .cache();
+    }
+    return sameDeployment;
+  }
+
+  private Mono<Void> copyServerSide(
+      MongoDatabase sourceDb,
+      MongoDatabase destDb,
+      String collectionName,
+      CollectionOptions options,
+      long startTime,
+      MigrationStats stats) {
+    ServerSideCopy serverSideCopy =
+        new ServerSideCopy(sourceDb, sourceClient.getDatabase("admin"), destDb, properties);
+    Mono<Void> copy =
+        serverSideCopy
+            .copy(collectionName, options, stats)
+            .doOnNext(stats::addDocuments)
+            .then();
+
+    return Flux.from(sourceDb.getCollection(collectionName).listIndexes())
+        .collectList()
+        .flatMap(indexes -> withIndexes(destDb, collectionName, indexes, copy, stats))
+        .onErrorMap(
+            ex ->
+                new MongoMigrationServiceException(
+                    "Error during server side copy of collection: " + collectionName, ex))
+        .then(
+            Mono.fromRunnable(() -> cleanUp(startTime, destDbName, collectionName, stats)));
+  }
+
+  private <T> Mono<Void> copyCollection(
+      DocumentFormat<T> format,
+      MongoDatabase sourceDb,
+      MongoDatabase destDb,
+      String collectionName,
+      CollectionOptions options,
+      long startTime,
+      MigrationStats stats) {
+    MongoCollection<T> sourceCollection = format.getCollection(sourceDb, collectionName);
+    MongoCollection<T> destCollection =
+        isBulkLoad()
+            ? format.getCollection(destDb, collectionName).withWriteConcern(bulkLoadWriteConcern())
+            : format.getCollection(destDb, collectionName);
+
+    Flux<BatchResult<T>> copy =
+        properties.isCheckpointing()
+            ? copyFromCheckpoints(
+                format,
+                sourceCollection,
+                destCollection,
+                new CheckpointStore(destDb, options.filterHash()),
+                collectionName,
+                options,
+                stats)
+            : copyDocuments(
+                format, sourceCollection, destCollection, collectionName, options, stats);
+
+    return Flux.from(sourceCollection.listIndexes())
+        .collectList()
+        .flatMap(indexes -> withIndexes(destDb, collectionName, indexes, copy.then(), stats))
+        .then(durabilityBarrier(destDb, collectionName))
+        .onErrorMap(
+            ex ->
+                new MongoMigrationServiceException(
+                    "Error during data migration for collection: " + collectionName, ex))
+        .then(
+            Mono.fromRunnable(() -> cleanUp(startTime, destDbName, collectionName, stats)));
+  }
+
+  private <T> Flux<BatchResult<T>> copyDocuments(
+      DocumentFormat<T> format,
+      MongoCollection<T> sourceCollection,
+      MongoCollection<T> destCollection,
+      String collectionName,
+      CollectionOptions options,
+      MigrationStats stats) {
+    int partitions = properties.getPartitions();
+    if (partitions <= 1) {
+      return copyBatches(
+              format, query(sourceCollection, null, null, options), destCollection, stats, false)
+          .doOnNext(
+              result -> {
+                long count = stats.addDocuments(result.getWritten());
+                logger.info(
+                    "Migrated " + count + " documents so far in collection: " + collectionName);
+              });
+    }
+    return IdRangePlanner.plan(sourceCollection, partitions)
+        .doOnNext(
+            ranges ->
+                logger.info(
+                    "Copying collection {} with {} partitions: {}",
+                    collectionName,
+                    ranges.size(),
+                    ranges))
+        .flatMapMany(
+            ranges ->
+                Flux.fromIterable(ranges)
+                    .flatMap(
+                        range ->
+                            copyPartition(
+                                format,
+                                query(sourceCollection, range.toFilter(), null, options),
+                                destCollection,
+                                collectionName,
+                                range,
+                                0,
+                                stats,
+                                false),
+                        ranges.size()));
+  }
+
+  /**
+   * Copies the partitions recorded in the checkpoint store, planning and recording them first if
+   * this is the first attempt. Each partition is read in {@code _id} order and its watermark is
+   * only advanced once every batch up to it has been acknowledged, so a later invocation can skip
+   * everything at or below the watermark.
+   */
+  private <T> Flux<BatchResult<T>> copyFromCheckpoints(
+      DocumentFormat<T> format,
+      MongoCollection<T> sourceCollection,
+      MongoCollection<T> destCollection,
+      CheckpointStore checkpoints,
+      String collectionName,
+      CollectionOptions options,
+      MigrationStats stats) {
+    return checkpoints
+        .load(collectionName)
+        .flatMap(
+            existing ->
+                existing.isEmpty()
+                    ? IdRangePlanner.plan(sourceCollection, properties.getPartitions())
+                        .flatMap(ranges -> checkpoints.create(collectionName, ranges))
+                        .map(created -> Tuples.of(created, false))
+                    : Mono.just(Tuples.of(existing, true)))
+        .flatMapMany(
+            loaded -> {
+              List<Checkpoint> all = loaded.getT1();
+              boolean resumed = loaded.getT2();
+              List<Checkpoint> pending =
+                  all.stream().filter(cp -> !cp.isCompleted()).collect(Collectors.toList());
               logger.info(
-                  "Everything completed in {}.", (System.currentTimeMillis() - startTime) / 1000);
+                  "Collection {}: {} of {} partitions left to copy",
+                  collectionName,
+                  pending.size(),
+                  all.size());
+              return Flux.fromIterable(pending)
+                  .flatMap(
+                      checkpoint ->
+                          resumePartition(
+                              format,
+                              sourceCollection,
+                              destCollection,
+                              checkpoints,
+                              collectionName,
+                              checkpoint,
+                              resumed,
+                              options,
+                              stats),
+                      Math.max(1, pending.size()));
             });
   }
 
-  private Mono<Void> createIndices(MongoCollection<Document> collection, List<Document> indexes) {
-    return Flux.fromIterable(indexes)
-        .flatMap(
-            index -> {
-              Document indexKeys = (Document) index.get("key");
-              IndexOptions options = new IndexOptions();
-              // Set other index options as needed
-              return Mono.from(collection.createIndex(indexKeys, options));
+  private <T> Flux<BatchResult<T>> resumePartition(
+      DocumentFormat<T> format,
+      MongoCollection<T> sourceCollection,
+      MongoCollection<T> destCollection,
+      CheckpointStore checkpoints,
+      String collectionName,
+      Checkpoint checkpoint,
+      boolean resumed,
+      CollectionOptions options,
+      MigrationStats stats) {
+    IdRange range = checkpoint.getRange();
+    Bson filter =
+        checkpoint.getLastId() == null
+            ? range.toFilter()
+            : Filters.and(range.toFilter(), IdRange.after(checkpoint.getLastId()));
+    if (checkpoint.getLastId() != null) {
+      logger.info(
+          "Resuming collection {} partition {} after _id {} ({} documents already copied)",
+          collectionName,
+          range,
+          checkpoint.getLastId(),
+          checkpoint.getDocuments());
+    }
+
+    // Batches past the watermark of an earlier invocation may have been written without being
+    // checkpointed; remove them so that re-reading the rest of the range cannot hit duplicate
+    // keys. Checkpoints created by this invocation have nothing of ours to remove. The pushed-down
+    // filter keeps the delete to documents this copy writes; where it cannot find them, the write
+    // mode tolerates writing them again (see requireResumable).
+    Mono<DeleteResult> cleanUp =
+        resumed && options.filterMatchesDestination()
+            ? Mono.from(destCollection.deleteMany(options.filter(filter)))
+            : Mono.empty();
+    return cleanUp
+        .doOnNext(
+            deleted -> {
+              if (deleted.getDeletedCount() > 0) {
+                logger.info(
+                    "Removed {} uncheckpointed documents from collection {} partition {}",
+                    deleted.getDeletedCount(),
+                    collectionName,
+                    range);
+              }
             })
+        .thenMany(
+            copyPartition(
+                format,
+                query(sourceCollection, filter, Sorts.ascending("_id"), options),
+                destCollection,
+                collectionName,
+                range,
+                checkpoint.getDocuments(),
+                stats,
+                true))
+        .concatMap(
+            result ->
+                checkpoints
+                    .advance(
+                        collectionName,
+                        range,
+                        format.idOf(lastDocument(result.getBatch())),
+                        result.getWritten(),
+                        result.getBatch().getBytes())
+                    .thenReturn(result))
+        .concatWith(
+            Mono.defer(
+                    () ->
+                        stats.isCompleted()
+                            ? checkpoints.complete(collectionName, range)
+                            : Mono.<Void>empty())
+                .then(Mono.<BatchResult<T>>empty()));
+  }
+
+  private <T> Flux<BatchResult<T>> copyPartition(
+      DocumentFormat<T> format,
+      Publisher<T> documents,
+      MongoCollection<T> destCollection,
+      String collectionName,
+      IdRange range,
+      long alreadyMigrated,
+      MigrationStats stats,
+      boolean inOrder) {
+    AtomicLong partitionDocumentsMigrated = new AtomicLong(alreadyMigrated);
+
+    return copyBatches(format, documents, destCollection, stats, inOrder)
+        .doOnNext(
+            result -> {
+              long count = stats.addDocuments(result.getWritten());
+              logger.info(
+                  "Migrated {} documents so far in collection: {}, partition {}/{}: {} documents",
+                  count,
+                  collectionName,
+                  range.getIndex() + 1,
+                  range.getCount(),
+                  partitionDocumentsMigrated.addAndGet(result.getWritten()));
+            })
+        .doOnComplete(
+            () ->
+                logger.info(
+                    "Partition {} of collection {} completed with {} documents",
+                    range,
+                    collectionName,
+                    partitionDocumentsMigrated.get()));
+  }
+
+  /**
+   * Batches and writes the given documents until the run's time budget expires. With {@code
+   * inOrder} the results are emitted in read order even though writes still overlap, which
+   * checkpointing relies on.
+   */
+  private <T> Flux<BatchResult<T>> copyBatches(
+      DocumentFormat<T> format,
+      Publisher<T> documents,
+      MongoCollection<T> destCollection,
+      MigrationStats stats,
+      boolean inOrder) {
+    // A prefetch of one holds the cursor back while the batch's bytes do not fit the budget.
+    MemoryGovernor governor = stats.getMemoryGovernor();
+    Flux<Batch<T>> batches =
+        readBatches(format, documents, stats)
+            .concatMap(batch -> governor.acquire(batch.getBytes()).thenReturn(batch), 1);
+    if (properties.getSpillMemoryBytes() > 0) {
+      // Batches still buffered when the budget runs out are dropped with the spill files;
+      // checkpoints only cover written batches, so the next invocation reads them again. Batches
+      // in the buffer's memory keep their bytes in the governor.
+      batches =
+          new SpillBuffer<>(
+                  format,
+                  properties.getSpillDirectory(),
+                  properties.getSpillMemoryBytes(),
+                  properties.getSpillSegmentBytes(),
+                  spillDisk,
+                  governor)
+              .buffer(batches)
+              .takeUntilOther(stats.getBudget().expiry());
+    }
+    Function<Batch<T>, Mono<BatchResult<T>>> write =
+        batch -> {
+          stats.recordBatch(batch);
+          long start = System.nanoTime();
+          stats.writeStarted();
+          return write(format, destCollection, batch)
+              .doOnSuccess(
+                  result -> {
+                    stats.getBatchWriteMicros().record((System.nanoTime() - start) / 1_000);
+                    stats.getSkippedDocuments().addAndGet(result.getSkipped());
+                  })
+              .doFinally(
+                  signal -> {
+                    stats.writeFinished();
+                    governor.release(batch.getBytes());
+                  });
+        };
+    return inOrder ? batches.flatMapSequential(write) : batches.flatMap(write);
+  }
+
+  /** Batches the documents, throttled by the source rate limit, until the time budget expires. */
+  private <T> Flux<Batch<T>> readBatches(
+      DocumentFormat<T> format, Publisher<T> documents, MigrationStats stats) {
+    return Flux.defer(
+            () -> {
+              long[] lastBatchNanos = {System.nanoTime()};
+              return batcher
+                  .batch(Flux.from(documents), format::sizeOf)
+                  .doOnNext(
+                      batch -> {
+                        long now = System.nanoTime();
+                        stats.getBatchReadMicros().record((now - lastBatchNanos[0]) / 1_000);
+                        lastBatchNanos[0] = now;
+                      });
+            })
+        .transform(flux -> throttle(flux, stats.getRateLimiter()))
+        .takeUntilOther(
+            stats
+                .getBudget()
+                .expiry()
+                .doOnNext(
+                    expired -> {
+                      if (stats.markStopped()) {
+                        logger.warn(
+                            "Time budget exhausted, no new batches will be read; "
+                                + "draining in-flight writes");
+                      }
+                    }));
+  }
+
+  private static <T> Flux<Batch<T>> throttle(Flux<Batch<T>> batches, SourceRateLimiter limiter) {
+    if (limiter.isUnlimited()) {
+      return batches;
+    }
+    // A prefetch of one keeps the cursor from running ahead of the limiter.
+    return batches.concatMap(batch -> limiter.acquire(batch).thenReturn(batch), 1);
+  }
+
+  /**
+   * The source query for a range (or the whole collection when {@code rangeFilter} is null), with
+   * the collection's filter and projection pushed down and its transform applied to the results.
+   */
+  private <T> Publisher<T> query(
+      MongoCollection<T> sourceCollection, Bson rangeFilter, Bson sort, CollectionOptions options) {
+    Bson filter = options.filter(rangeFilter);
+    FindPublisher<T> find =
+        filter == null ? sourceCollection.find() : sourceCollection.find(filter);
+    if (sort != null) {
+      find = find.sort(sort);
+    }
+    if (options.getProjection() != null) {
+      find = find.projection(options.getProjection());
+    }
+    find = tuned(find);
+    if (options.getTransform() == null) {
+      return find;
+    }
+    // Transforms force the DOCUMENT format, so T is Document here.
+    @SuppressWarnings("unchecked")
+    Function<T, T> transform = (Function<T, T>) (Function<?, ?>) options.getTransform();
+    return Flux.from(find).map(transform);
+  }
+
+  private <T> FindPublisher<T> tuned(FindPublisher<T> find) {
+    if (properties.getFindBatchSize() != null) {
+      find = find.batchSize(properties.getFindBatchSize());
+    }
+    if (properties.isNoCursorTimeout()) {
+      find = find.noCursorTimeout(true);
+    }
+    return find;
+  }
+
+  private <T> Mono<BatchResult<T>> write(
+      DocumentFormat<T> format, MongoCollection<T> destCollection, Batch<T> batch) {
+    switch (properties.getWriteMode()) {
+      case skipDuplicates:
+        InsertManyOptions options =
+            new InsertManyOptions().ordered(false).bypassDocumentValidation(isBulkLoad());
+        return Mono.from(destCollection.insertMany(batch.getDocuments(), options))
+            .map(result -> new BatchResult<>(batch, result.getInsertedIds().size()))
+            .onErrorResume(
+                MongoBulkWriteException.class,
+                e -> {
+                  if (!isDuplicateKeyOnly(e)) {
+                    return Mono.error(e);
+                  }
+                  long inserted = e.getWriteResult().getInsertedCount();
+                  return Mono.just(new BatchResult<>(batch, inserted, e.getWriteErrors().size()));
+                });
+      case upsert:
+        List<ReplaceOneModel<T>> upserts =
+            batch.getDocuments().stream()
+                .map(
+                    document ->
+                        new ReplaceOneModel<>(
+                            Filters.eq("_id", format.idOf(document)),
+                            document,
+                            new ReplaceOptions().upsert(true)))
+                .collect(Collectors.toList());
+        BulkWriteOptions bulkOptions =
+            new BulkWriteOptions().ordered(false).bypassDocumentValidation(isBulkLoad());
+        // Matched documents were already there; replacing them keeps the source's version.
+        return Mono.from(destCollection.bulkWrite(upserts, bulkOptions))
+            .map(
+                result ->
+                    new BatchResult<>(batch, result.getUpserts().size(), result.getMatchedCount()));
+      default:
+        return Mono.from(insert(destCollection, batch.getDocuments()))
+            .map(result -> new BatchResult<>(batch, result.getInsertedIds().size()));
+    }
+  }
+
+  /** Whether every error of an unordered insert is a duplicate key, i.e. nothing was lost. */
+  static boolean isDuplicateKeyOnly(MongoBulkWriteException e) {
+    return e.getWriteConcernError() == null
+        && !e.getWriteErrors().isEmpty()
+        && e.getWriteErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY);
+  }
+
+  private <T> Publisher<InsertManyResult> insert(
+      MongoCollection<T> destCollection, List<T> documents) {
+    if (isBulkLoad()) {
+      return destCollection.insertMany(documents, BULK_LOAD_INSERT_OPTIONS);
+    }
+    return destCollection.insertMany(documents);
+  }
+
+  private static <T> T lastDocument(Batch<T> batch) {
+    return batch.getDocuments().get(batch.size() - 1);
+  }
+
+  private boolean isBulkLoad() {
+    return properties.getWriteProfile() == WriteProfile.bulkLoad;
+  }
+
+  private WriteConcern bulkLoadWriteConcern() {
+    String w = properties.getBulkLoadWriteConcern();
+    WriteConcern writeConcern =
+        !w.isEmpty() && w.chars().allMatch(Character::isDigit)
+            ? new WriteConcern(Integer.parseInt(w))
+            : new WriteConcern(w);
+    return writeConcern.withJournal(properties.isBulkLoadJournal());
+  }
+
+  /**
+   * Writes a marker with majority, journaled write concern. Replication applies the oplog in
+   * order, so once the marker is acknowledged every relaxed write issued before it is durable too.
+   */
+  private Mono<Void> durabilityBarrier(MongoDatabase destDb, String collectionName) {
+    if (!isBulkLoad()) {
+      return Mono.empty();
+    }
+    return Mono.defer(
+            () ->
+                Mono.from(
+                    destDb
+                        .getCollection(MIGRATION_METADATA_COLLECTION)
+                        .withWriteConcern(WriteConcern.MAJORITY.withJournal(true))
+                        .updateOne(
+                            Filters.eq("_id", "barrier:" + collectionName),
+                            Updates.set("completedAt", new Date()),
+                            new UpdateOptions().upsert(true))))
+        .doOnSuccess(
+            result -> logger.info("Durability barrier acknowledged for {}", collectionName))
         .then();
   }
 
-  private void cleanUp(
-      long startTime,
-      String destDbName,
+  /** Runs the copy with the indexes built before it, or after it with deferIndexBuilds. */
+  private Mono<Void> withIndexes(
+      MongoDatabase destDb,
       String collectionName,
-      AtomicLong totalDocumentsMigrated,
-      AtomicLong totalSizeMigrated) {
+      List<Document> indexes,
+      Mono<Void> copy,
+      MigrationStats stats) {
+    if (!properties.isDeferIndexBuilds()) {
+      return createIndices(destDb, collectionName, indexes, stats).then(copy);
+    }
+    // Load first, then build every index once. A copy cut short by the time budget leaves the
+    // build to the invocation that finishes the data.
+    return copy.then(
+        Mono.defer(
+            () ->
+                stats.isCompleted()
+                    ? createIndices(destDb, collectionName, indexes, stats)
+                    : Mono.empty()));
+  }
+
+  /**
+   * Recreates the source's secondary indexes with a single createIndexes command, keeping every
+   * index option (unique, sparse, TTL, partial filter, collation, name, ...) except the
+   * server-assigned version and namespace.
+   */
+  private Mono<Void> createIndices(
+      MongoDatabase destDb, String collectionName, List<Document> indexes, MigrationStats stats) {
+    List<Document> specs =
+        indexes.stream()
+            .filter(index -> !"_id_".equals(index.getString("name")))
+            .map(
+                index -> {
+                  Document spec = new Document(index);
+                  spec.remove("v");
+                  spec.remove("ns");
+                  return spec;
+                })
+            .collect(Collectors.toList());
+    if (specs.isEmpty()) {
+      return Mono.empty();
+    }
+    return Mono.defer(
+        () -> {
+          long indexStart = System.currentTimeMillis();
+          return Mono.from(
+                  destDb.runCommand(
+                      new Document("createIndexes", collectionName).append("indexes", specs)))
+              .doOnSuccess(
+                  response -> {
+                    long elapsed = System.currentTimeMillis() - indexStart;
+                    stats.getIndexBuildMillis().addAndGet(elapsed);
+                    logger.info(
+                        "Built {} indexes on {} in {} ms", specs.size(), collectionName, elapsed);
+                  })
+              .then();
+        });
+  }
+
+  private void cleanUp(
+      long startTime, String destDbName, String collectionName, MigrationStats stats) {
     long endTime = System.currentTimeMillis();
     long totalTimeInSeconds = (endTime - startTime) / 1000;
-    double totalSizeInGB = totalSizeMigrated.get() / (1024.0 * 1024.0 * 1024.0);
+    double totalSizeInGB = stats.getBytes().get() / (1024.0 * 1024.0 * 1024.0);
 
     logger.info(
         "Migration completed: Total Time: "
             + totalTimeInSeconds
             + " seconds, Total Documents: "
-            + totalDocumentsMigrated.get()
+            + stats.getDocuments().get()
             + ", Database: "
             + destDbName
             + ", Collection: "
             + collectionName
             + ", Total Size: "
             + totalSizeInGB
-            + " GB");
+            + " GB, Index Build Time: "
+            + stats.getIndexBuildMillis().get() / 1000
+            + " seconds");
+    logger.info(
+        "Batch documents for {}: {}; buckets: {}",
+        collectionName,
+        stats.getBatchDocuments(),
+        stats.getBatchDocuments().describeBuckets());
+    logger.info(
+        "Batch bytes for {}: {}; buckets: {}",
+        collectionName,
+        stats.getBatchBytes(),
+        stats.getBatchBytes().describeBuckets());
+    logger.info(
+        "Batch read micros for {}: {}; write micros: {}; peak in-flight writes: {}",
+        collectionName,
+        stats.getBatchReadMicros(),
+        stats.getBatchWriteMicros(),
+        stats.getPeakInFlightWrites().get());
+    if (stats.getSkippedDocuments().get() > 0) {
+      logger.info(
+          "Skipped {} documents already in collection: {}",
+          stats.getSkippedDocuments().get(),
+          collectionName);
+    }
+    logger.info(
+        "Buffered batch bytes: peak {}, average {}, budget {}",
+        stats.getMemoryGovernor().getPeakBytes(),
+        stats.getMemoryGovernor().getAverageBytes(),
+        stats.getMemoryGovernor().getBudgetBytes());
+  }
+
+  /**
+   * Streams the collection in {@code _id} order, with its configured filter, projection and
+   * transforms, into gzip segments under {@code <archiveDirectory>/<database>/<collection>/}. Each
+   * finished segment is recorded in {@code <collection>.progress.json}, so an export stopped by the
+   * time budget is continued by the next one after the last segment it finished. Once every
+   * document is written the collection's indexes go to {@code <collection>.metadata.json} next to
+   * that directory, which marks the export as complete.
+   */
+  public Mono<MigrationStats> exportCollection(
+      String collectionName, TimeBudget budget, CollectionProperties overrides) {
+    long startTime = System.currentTimeMillis();
+    CollectionOptions options = collectionOptions(collectionName, overrides);
+    MongoDatabase sourceDb = sourceClient.getDatabase(sourceDbName);
+    SourceRateLimiter rateLimiter = SourceRateLimiter.of(properties);
+    MigrationStats stats =
+        new MigrationStats(budget, "export:" + collectionName, rateLimiter, memoryGovernor);
+    Path directory = archiveDirectory(collectionName);
+    Path metadata = archiveMetadata(collectionName);
+    Path progress = archiveProgress(collectionName);
+    // Raw bytes go to disk as read unless a transform needs the decoded documents.
+    DocumentFormat<?> format =
+        options.getTransform() == null ? DocumentFormat.RAW : DocumentFormat.DOCUMENT;
+
+    return Mono.fromCallable(
+            () -> prepareArchive(directory, metadata, progress, options.filterHash()))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(
+            start ->
+                exportDocuments(
+                    format, sourceDb, collectionName, options, directory, progress, start, stats))
+        .then(
+            Mono.defer(
+                () ->
+                    stats.isCompleted()
+                        ? writeArchiveMetadata(sourceDb, collectionName, metadata)
+                            .then(Mono.fromCallable(() -> Files.deleteIfExists(progress)))
+                        : Mono.empty()))
+        .onErrorMap(
+            ex ->
+                new MongoMigrationServiceException(
+                    "Error exporting collection: " + collectionName, ex))
+        .then(Mono.fromRunnable(() -> cleanUp(startTime, sourceDbName, collectionName, stats)))
+        .thenReturn(stats)
+        .doOnSubscribe(
+            subscription -> rateLimiter.start(sourceDb, properties.getSourceLatencyProbeMillis()))
+        .doFinally(signal -> rateLimiter.stop());
+  }
+
+  private <T> Mono<Void> exportDocuments(
+      DocumentFormat<T> format,
+      MongoDatabase sourceDb,
+      String collectionName,
+      CollectionOptions options,
+      Path directory,
+      Path progress,
+      ExportProgress start,
+      MigrationStats stats) {
+    MongoCollection<T> sourceCollection = format.getCollection(sourceDb, collectionName);
+    MemoryGovernor governor = stats.getMemoryGovernor();
+    Bson after = start.getLastId() == null ? null : IdRange.after(start.getLastId());
+    if (after != null) {
+      logger.info(
+          "Continuing export of collection {} after _id {} with {} segments already written",
+          collectionName,
+          start.getLastId(),
+          start.getSegments());
+    }
+    return Flux.using(
+            () ->
+                new ArchiveWriter(
+                    directory,
+                    start.getSegments(),
+                    properties.getArchiveSegmentBytes(),
+                    properties.getArchiveBufferBytes(),
+                    properties.getArchiveCompressionLevel(),
+                    (segments, last) -> {
+                      try {
+                        new ExportProgress(start.getFilterHash(), segments, last.get("_id"))
+                            .save(progress);
+                      } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                      }
+                    }),
+            writer ->
+                readBatches(
+                        format,
+                        query(sourceCollection, after, Sorts.ascending("_id"), options),
+                        stats)
+                    .concatMap(batch -> governor.acquire(batch.getBytes()).thenReturn(batch), 1)
+                    // Only one batch waits for the disk, so the cursor stays held back meanwhile.
+                    .publishOn(Schedulers.boundedElastic(), 1)
+                    .doOnNext(
+                        batch -> {
+                          try {
+                            stats.recordBatch(batch);
+                            long start = System.nanoTime();
+                            batch.getDocuments().forEach(doc -> writer.write(format.toRaw(doc)));
+                            stats
+                                .getBatchWriteMicros()
+                                .record((System.nanoTime() - start) / 1_000);
+                          } finally {
+                            governor.release(batch.getBytes());
+                          }
+                          long count = stats.addDocuments(batch.size());
+                          logger.info(
+                              "Exported {} documents so far from collection: {}",
+                              count,
+                              collectionName);
+                        }),
+            ArchiveWriter::close)
+        .then();
+  }
+
+  /**
+   * Loads an archive written by {@link #exportCollection} into the destination through the same
+   * batched inserts as a live copy, creating the recorded indexes as configured. Segments are
+   * loaded one after another and each is recorded in the destination's metadata collection once
+   * written, so an import stopped by the time budget continues with the segment it was in.
+   * Reloading that segment needs the skipDuplicates or upsert write mode to get past the documents
+   * already loaded.
+   */
+  public Mono<MigrationStats> importCollection(String collectionName, TimeBudget budget) {
+    if (!budget.isUnlimited() && properties.getWriteMode() == WriteMode.insert) {
+      return Mono.error(
+          new MongoMigrationServiceException(
+              "Importing collection "
+                  + collectionName
+                  + " under a time budget needs writeMode skipDuplicates or upsert, so that a"
+                  + " stopped import can be run again"));
+    }
+    long startTime = System.currentTimeMillis();
+    MongoDatabase destDb = destClient.getDatabase(destDbName);
+    MigrationStats stats =
+        new MigrationStats(
+            budget, "import:" + collectionName, SourceRateLimiter.unlimited(), memoryGovernor);
+    Path directory = archiveDirectory(collectionName);
+    Path metadata = archiveMetadata(collectionName);
+
+    return Mono.fromCallable(() -> readArchiveMetadata(metadata))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(
+            recorded ->
+                withIndexes(
+                    destDb,
+                    collectionName,
+                    recorded.getList("indexes", Document.class, List.of()),
+                    importSegments(
+                        destDb, collectionName, directory, recorded.getLong("exportedAt"), stats),
+                    stats))
+        .then(durabilityBarrier(destDb, collectionName))
+        .onErrorMap(
+            ex ->
+                new MongoMigrationServiceException(
+                    "Error importing collection: " + collectionName, ex))
+        .then(Mono.fromRunnable(() -> cleanUp(startTime, destDbName, collectionName, stats)))
+        .thenReturn(stats);
+  }
+
+  /**
+   * Loads the segments past those recorded as imported from the same export, identified by its
+   * {@code exportedAt}; archives without one are always loaded from the start.
+   */
+  private Mono<Void> importSegments(
+      MongoDatabase destDb,
+      String collectionName,
+      Path directory,
+      Long exportedAt,
+      MigrationStats stats) {
+    MongoCollection<BsonDocument> state =
+        destDb.getCollection(MIGRATION_METADATA_COLLECTION, BsonDocument.class);
+    String id = "import:" + collectionName;
+    Mono<Integer> imported =
+        exportedAt == null
+            ? Mono.just(0)
+            : Mono.from(state.find(Filters.eq("_id", id)).first())
+                .filter(saved -> saved.getInt64("exportedAt").getValue() == exportedAt)
+                .map(saved -> saved.getInt32("segments").getValue())
+                .defaultIfEmpty(0);
+    return imported
+        .zipWith(
+            Mono.fromCallable(() -> archiveSegments(directory))
+                .subscribeOn(Schedulers.boundedElastic()))
+        .flatMapMany(
+            found -> {
+              int done = Math.min(found.getT1(), found.getT2().size());
+              if (done > 0) {
+                logger.info(
+                    "Skipping {} segments already imported into collection {}",
+                    done,
+                    collectionName);
+              }
+              return Flux.range(done, found.getT2().size() - done)
+                  .map(index -> Tuples.of(index, found.getT2().get(index)));
+            })
+        .concatMap(
+            segment ->
+                Mono.defer(
+                    () ->
+                        stats.isCompleted()
+                            ? importSegment(destDb, collectionName, segment.getT2(), stats)
+                                .then(
+                                    Mono.defer(
+                                        () ->
+                                            stats.isCompleted() && exportedAt != null
+                                                ? saveImported(
+                                                    state,
+                                                    id,
+                                                    exportedAt,
+                                                    segment.getT1() + 1)
+                                                : Mono.empty()))
+                            : Mono.empty()))
+        .then();
+  }
+
+  // A majority, journaled write, so the segment's writes before it are durable once it is recorded.
+  private Mono<Void> saveImported(
+      MongoCollection<BsonDocument> state, String id, long exportedAt, int segments) {
+    return Mono.from(
+            state
+                .withWriteConcern(WriteConcern.MAJORITY.withJournal(true))
+                .updateOne(
+                    Filters.eq("_id", id),
+                    Updates.combine(
+                        Updates.set("type", "import"),
+                        Updates.set("exportedAt", exportedAt),
+                        Updates.set("segments", segments),
+                        Updates.currentDate("updatedAt")),
+                    new UpdateOptions().upsert(true)))
+        .then();
+  }
+
+  private Mono<Void> importSegment(
+      MongoDatabase destDb, String collectionName, Path segment, MigrationStats stats) {
+    MongoCollection<RawBsonDocument> destCollection =
+        isBulkLoad()
+            ? DocumentFormat.RAW
+                .getCollection(destDb, collectionName)
+                .withWriteConcern(bulkLoadWriteConcern())
+            : DocumentFormat.RAW.getCollection(destDb, collectionName);
+
+    Flux<RawBsonDocument> documents =
+        Flux.using(
+                () -> new ArchiveReader(List.of(segment), properties.getArchiveBufferBytes()),
+                reader ->
+                    Flux.<RawBsonDocument>generate(
+                        sink -> {
+                          RawBsonDocument document = reader.next();
+                          if (document == null) {
+                            sink.complete();
+                          } else {
+                            sink.next(document);
+                          }
+                        }),
+                ArchiveReader::close)
+            .subscribeOn(Schedulers.boundedElastic());
+    return copyBatches(DocumentFormat.RAW, documents, destCollection, stats, false)
+        .doOnNext(
+            result -> {
+              long count = stats.addDocuments(result.getWritten());
+              logger.info(
+                  "Imported {} documents so far into collection: {}", count, collectionName);
+            })
+        .then();
+  }
+
+  private Path archiveDirectory(String collectionName) {
+    return Paths.get(properties.getArchiveDirectory(), sourceDbName, collectionName);
+  }
+
+  private Path archiveMetadata(String collectionName) {
+    return Paths.get(
+        properties.getArchiveDirectory(), sourceDbName, collectionName + ".metadata.json");
+  }
+
+  private Path archiveProgress(String collectionName) {
+    return Paths.get(
+        properties.getArchiveDirectory(), sourceDbName, collectionName + ".progress.json");
+  }
+
+  /**
+   * Where the export starts: after the recorded progress of a stopped export with the same filter,
+   * otherwise from nothing, with the files of an earlier export removed. Segments past the recorded
+   * progress were cut short and are removed either way.
+   */
+  private static ExportProgress prepareArchive(
+      Path directory, Path metadata, Path progressFile, String filterHash) throws IOException {
+    Files.createDirectories(directory);
+    List<Path> segments = archiveSegments(directory);
+    ExportProgress progress = Files.exists(metadata) ? null : ExportProgress.load(progressFile);
+    if (progress == null
+        || !Objects.equals(progress.getFilterHash(), filterHash)
+        || progress.getSegments() > segments.size()) {
+      progress = new ExportProgress(filterHash, 0, null);
+      Files.deleteIfExists(progressFile);
+    }
+    Files.deleteIfExists(metadata);
+    for (Path segment : segments.subList(progress.getSegments(), segments.size())) {
+      Files.delete(segment);
+    }
+    return progress;
+  }
+
+  private static List<Path> archiveSegments(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(file -> file.getFileName().toString().endsWith(ArchiveWriter.SEGMENT_SUFFIX))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private Mono<Void> writeArchiveMetadata(
+      MongoDatabase sourceDb, String collectionName, Path metadata) {
+    return Flux.from(sourceDb.getCollection(collectionName).listIndexes())
+        .collectList()
+        .publishOn(Schedulers.boundedElastic())
+        .doOnNext(
+            indexes -> {
+              Document document =
+                  new Document("collectionName", collectionName)
+                      .append("type", "collection")
+                      // Tells the import a new export from the one it recorded progress for.
+                      .append("exportedAt", System.currentTimeMillis())
+                      .append("options", new Document())
+                      .append("indexes", indexes);
+              try {
+                Files.writeString(
+                    metadata,
+                    document.toJson(
+                        JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build()));
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+              logger.info("Wrote archive metadata {}", metadata);
+            })
+        .then();
+  }
+
+  private static Document readArchiveMetadata(Path metadata) throws IOException {
+    if (!Files.exists(metadata)) {
+      throw new MongoMigrationServiceException(
+          "No archive metadata at " + metadata + ", the export is missing or incomplete");
+    }
+    return Document.parse(Files.readString(metadata));
   }
 
   public Mono<Void> dropDatabase() {
@@ -205,11 +1365,7 @@ public class MongoMigrationService {
             e ->
                 logger.error(
                     "Error dropping database '" + destDbName + "' in destination cluster", e))
-        .then()
-        .doFinally(
-            signalType -> {
-              destClient.close();
-            });
+        .then();
   }
 
   public Mono<Long> getCollectionSize(String collectionName) {
@@ -0,0 +1,42 @@
+package dist.migration.services;
+
+import lombok.Getter;
+import org.bson.BsonDocument;
+import org.bson.BsonNumber;
+
+/**
+ * Order-independent summary of the documents in one {@code _id} range: how many there are, their
+ * total BSON size and the sum of their hashes. A null hash means the server could not compute it.
+ */
+@Getter
+public class RangeDigest {
+  static final RangeDigest EMPTY = new RangeDigest(0, 0, 0L);
+
+  private final long count;
+  private final long bytes;
+  private final Long hash;
+
+  RangeDigest(long count, long bytes, Long hash) {
+    this.count = count;
+    this.bytes = bytes;
+    this.hash = hash;
+  }
+
+  static RangeDigest fromDocument(BsonDocument document) {
+    return new RangeDigest(
+        longValue(document, "count"),
+        longValue(document, "bytes"),
+        document.containsKey("hash") ? longValue(document, "hash") : null);
+  }
+
+  private static long longValue(BsonDocument document, String key) {
+    BsonNumber number = document.getNumber(key);
+    return number.isDouble() ? Math.round(number.doubleValue()) : number.longValue();
+  }
+
+  boolean matches(RangeDigest other) {
+    return count == other.count
+        && bytes == other.bytes
+        && (hash == null || other.hash == null || hash.equals(other.hash));
+  }
+}
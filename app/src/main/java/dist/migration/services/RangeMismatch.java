@@ -0,0 +1,43 @@
+package dist.migration.services;
+
+import lombok.Getter;
+
+/** A range whose digests differ between the source and the destination. */
+@Getter
+public class RangeMismatch {
+  private final String range;
+  private final long sourceCount;
+  private final long destinationCount;
+  private final long countDelta;
+  private final long sourceBytes;
+  private final long destinationBytes;
+  private final Boolean hashMatches;
+
+  RangeMismatch(IdRange range, RangeDigest source, RangeDigest destination) {
+    this.range = range.toString();
+    this.sourceCount = source.getCount();
+    this.destinationCount = destination.getCount();
+    this.countDelta = destination.getCount() - source.getCount();
+    this.sourceBytes = source.getBytes();
+    this.destinationBytes = destination.getBytes();
+    this.hashMatches =
+        source.getHash() == null || destination.getHash() == null
+            ? null
+            : source.getHash().equals(destination.getHash());
+  }
+
+  @Override
+  public String toString() {
+    return range
+        + " count "
+        + sourceCount
+        + " -> "
+        + destinationCount
+        + ", bytes "
+        + sourceBytes
+        + " -> "
+        + destinationBytes
+        + ", hash match "
+        + hashMatches;
+  }
+}
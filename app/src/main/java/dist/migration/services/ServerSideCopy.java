@@ -0,0 +1,271 @@
+package dist.migration.services;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.MergeOptions;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import dist.migration.configs.DatabaseProperties;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Copies a collection inside one deployment with an aggregation ending in {@code $merge}, so no
+ * document passes through the function. The collection's filter, projection and transforms are
+ * translated into pipeline stages. Merging replaces documents by {@code _id}, so a copy stopped by
+ * the time budget is simply run again.
+ *
+ * <p>The aggregation carries a comment naming its destination, which finds it in {@code currentOp}:
+ * when the budget runs out the merge is killed on the server, and a run that finds a merge of the
+ * same collection still in progress leaves it to finish instead of starting a second one.
+ */
+public class ServerSideCopy {
+
+  private static final Logger logger = LoggerFactory.getLogger(ServerSideCopy.class);
+
+  private final MongoDatabase sourceDb;
+  private final MongoDatabase sourceAdminDb;
+  private final MongoDatabase destDb;
+  private final DatabaseProperties properties;
+
+  public ServerSideCopy(
+      MongoDatabase sourceDb,
+      MongoDatabase sourceAdminDb,
+      MongoDatabase destDb,
+      DatabaseProperties properties) {
+    this.sourceDb = sourceDb;
+    this.sourceAdminDb = sourceAdminDb;
+    this.destDb = destDb;
+    this.properties = properties;
+  }
+
+  /** Whether both admin databases are served by the same replica set or the same process. */
+  public static Mono<Boolean> sameDeployment(MongoDatabase sourceAdmin, MongoDatabase destAdmin) {
+    return Mono.zip(hello(sourceAdmin), hello(destAdmin))
+        .map(hellos -> sameDeployment(hellos.getT1(), hellos.getT2()));
+  }
+
+  private static Mono<BsonDocument> hello(MongoDatabase adminDb) {
+    return Mono.from(adminDb.runCommand(new Document("hello", 1), BsonDocument.class));
+  }
+
+  static boolean sameDeployment(BsonDocument source, BsonDocument destination) {
+    if (source.containsKey("setName") || destination.containsKey("setName")) {
+      return source.get("setName") != null
+          && source.get("setName").equals(destination.get("setName"))
+          && !intersection(hosts(source), hosts(destination)).isEmpty();
+    }
+    BsonValue sourceProcess = processId(source);
+    return sourceProcess != null && sourceProcess.equals(processId(destination));
+  }
+
+  private static Set<BsonValue> hosts(BsonDocument hello) {
+    return new HashSet<>(hello.getArray("hosts", new BsonArray()).getValues());
+  }
+
+  private static Set<BsonValue> intersection(Set<BsonValue> a, Set<BsonValue> b) {
+    Set<BsonValue> common = new HashSet<>(a);
+    common.retainAll(b);
+    return common;
+  }
+
+  private static BsonValue processId(BsonDocument hello) {
+    BsonDocument topologyVersion = hello.getDocument("topologyVersion", null);
+    return topologyVersion == null ? null : topologyVersion.get("processId");
+  }
+
+  /**
+   * Runs the merge and returns the number of source documents it merged, or nothing when the merge
+   * did not complete.
+   */
+  public Mono<Long> copy(String collectionName, CollectionOptions options, MigrationStats stats) {
+    if (sourceDb.getName().equals(destDb.getName())) {
+      return Mono.error(
+          new IllegalArgumentException(
+              "Refusing to merge "
+                  + sourceDb.getName()
+                  + "."
+                  + collectionName
+                  + " into itself"));
+    }
+    String comment = comment(collectionName);
+    return runningMerges(comment)
+        .flatMap(
+            running -> {
+              if (running.isEmpty()) {
+                return merge(collectionName, comment, options, stats);
+              }
+              stats.markStopped();
+              logger.warn(
+                  "A merge of {} from an earlier run is still in progress (opid {}); run the copy"
+                      + " again once it has finished",
+                  collectionName,
+                  running.get(0).get("opid"));
+              return Mono.empty();
+            });
+  }
+
+  private Mono<Long> merge(
+      String collectionName, String comment, CollectionOptions options, MigrationStats stats) {
+    List<Bson> pipeline = pipeline(destDb.getName(), collectionName, options);
+    logger.info("Copying collection {} server side with {}", collectionName, pipeline);
+
+    Mono<Long> expired =
+        stats
+            .getBudget()
+            .expiry()
+            .flatMap(
+                expiry -> {
+                  if (stats.markStopped()) {
+                    logger.warn(
+                        "Time budget exhausted while merging {}; stopping the merge on the server,"
+                            + " run the copy again to finish",
+                        collectionName);
+                  }
+                  return killMerges(comment).thenReturn(expiry);
+                });
+    Mono<Boolean> merge =
+        Mono.from(
+                sourceDb
+                    .getCollection(collectionName)
+                    .aggregate(pipeline)
+                    .allowDiskUse(true)
+                    .comment(comment)
+                    .toCollection())
+            .thenReturn(true)
+            .takeUntilOther(expired);
+
+    Disposable[] progress = new Disposable[1];
+    return merge
+        .doOnSubscribe(
+            subscription ->
+                progress[0] =
+                    Flux.interval(Duration.ofMillis(properties.getServerSideProgressMillis()))
+                        .concatMap(tick -> logProgress(collectionName, comment))
+                        .subscribe())
+        .doFinally(signal -> progress[0].dispose())
+        .flatMap(
+            completed ->
+                Mono.from(
+                    sourceDb
+                        .getCollection(collectionName)
+                        .countDocuments(
+                            options.getFilter() == null
+                                ? new BsonDocument()
+                                : options.getFilter())));
+  }
+
+  private String comment(String collectionName) {
+    return "migration to " + destDb.getName() + "." + collectionName;
+  }
+
+  private Mono<List<BsonDocument>> runningMerges(String comment) {
+    Document currentOp = new Document("currentOp", true).append("command.comment", comment);
+    return Mono.from(sourceAdminDb.runCommand(currentOp, BsonDocument.class))
+        .map(
+            result ->
+                result.getArray("inprog").getValues().stream()
+                    .map(BsonValue::asDocument)
+                    .collect(Collectors.toList()));
+  }
+
+  private Mono<Void> killMerges(String comment) {
+    return runningMerges(comment)
+        .flatMapMany(Flux::fromIterable)
+        .concatMap(
+            op -> {
+              logger.info("Killing merge opid {}", op.get("opid"));
+              return Mono.from(
+                  sourceAdminDb.runCommand(
+                      new BsonDocument("killOp", new BsonInt32(1)).append("op", op.get("opid"))));
+            })
+        .onErrorResume(
+            e -> {
+              logger.warn("Could not stop the merge on the server: {}", e.getMessage());
+              return Mono.empty();
+            })
+        .then();
+  }
+
+  private Mono<Void> logProgress(String collectionName, String comment) {
+    return Mono.zip(
+            runningMerges(comment),
+            Mono.from(destDb.getCollection(collectionName).estimatedDocumentCount()))
+        .doOnNext(
+            result -> {
+              for (BsonDocument op : result.getT1()) {
+                logger.info(
+                    "Server side copy of {}: opid {} running for {} s, {} documents in {}",
+                    collectionName,
+                    op.get("opid"),
+                    op.get("secs_running"),
+                    result.getT2(),
+                    destDb.getName());
+              }
+            })
+        .onErrorResume(
+            e -> {
+              logger.warn("Could not poll progress of {}: {}", collectionName, e.getMessage());
+              return Mono.empty();
+            })
+        .then();
+  }
+
+  static List<Bson> pipeline(String destDbName, String collectionName, CollectionOptions options) {
+    List<Bson> pipeline = new ArrayList<>();
+    if (options.getFilter() != null) {
+      pipeline.add(Aggregates.match(options.getFilter()));
+    }
+    if (options.getProjection() != null) {
+      pipeline.add(Aggregates.project(options.getProjection()));
+    }
+    DocumentTransform transform = options.getTransform();
+    if (transform != null) {
+      if (!transform.getDrop().isEmpty()) {
+        pipeline.add(unset(transform.getDrop()));
+      }
+      if (!transform.getRename().isEmpty()) {
+        BsonDocument renamed = new BsonDocument();
+        transform.getRename().forEach((from, to) -> renamed.append(to, new BsonString("$" + from)));
+        pipeline.add(new BsonDocument("$set", renamed));
+        pipeline.add(unset(new ArrayList<>(transform.getRename().keySet())));
+      }
+      if (!transform.getSet().isEmpty()) {
+        Document values = new Document();
+        for (Map.Entry<String, Object> field : transform.getSet().entrySet()) {
+          values.append(field.getKey(), new Document("$literal", field.getValue()));
+        }
+        pipeline.add(new Document("$set", values));
+      }
+    }
+    pipeline.add(
+        Aggregates.merge(
+            new MongoNamespace(destDbName, collectionName),
+            new MergeOptions()
+                .whenMatched(MergeOptions.WhenMatched.REPLACE)
+                .whenNotMatched(MergeOptions.WhenNotMatched.INSERT)));
+    return pipeline;
+  }
+
+  private static Bson unset(List<String> fields) {
+    BsonArray names = new BsonArray();
+    fields.forEach(field -> names.add(new BsonString(field)));
+    return new BsonDocument("$unset", names);
+  }
+}
@@ -0,0 +1,137 @@
+package dist.migration.services;
+
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import dist.migration.configs.DatabaseProperties;
+import java.time.Duration;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Token bucket on the documents and bytes read from the source, applied per batch and shared by
+ * every cursor of a run. Each batch takes the tokens it needs up front and the next batch waits
+ * until they are paid back, so the cursor is only advanced at the configured rate.
+ *
+ * <p>With a latency threshold, the limiter pings the source periodically and halves the rate
+ * whenever a round trip exceeds the threshold, recovering additively once it is back below.
+ */
+public class SourceRateLimiter {
+
+  private static final Logger logger = LoggerFactory.getLogger(SourceRateLimiter.class);
+  private static final SourceRateLimiter UNLIMITED = new SourceRateLimiter(0, 0, 0);
+
+  static final double MIN_RATE_FACTOR = 1.0 / 64;
+  static final double RATE_FACTOR_STEP = 0.05;
+
+  private final double documentsPerSecond;
+  private final double bytesPerSecond;
+  private final long latencyThresholdMillis;
+  private double rateFactor = 1.0;
+  private long nextFreeNanos = Long.MIN_VALUE;
+  private Disposable latencyProbe;
+
+  SourceRateLimiter(double documentsPerSecond, double bytesPerSecond, long latencyThresholdMillis) {
+    this.documentsPerSecond = documentsPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    this.latencyThresholdMillis = latencyThresholdMillis;
+  }
+
+  public static SourceRateLimiter unlimited() {
+    return UNLIMITED;
+  }
+
+  public static SourceRateLimiter of(DatabaseProperties properties) {
+    if (properties.getMaxReadDocumentsPerSecond() <= 0
+        && properties.getMaxReadBytesPerSecond() <= 0) {
+      if (properties.getSourceLatencyThresholdMillis() > 0) {
+        logger.warn("sourceLatencyThresholdMillis only scales a configured read rate; ignoring it");
+      }
+      return UNLIMITED;
+    }
+    return new SourceRateLimiter(
+        properties.getMaxReadDocumentsPerSecond(),
+        properties.getMaxReadBytesPerSecond(),
+        properties.getSourceLatencyThresholdMillis());
+  }
+
+  public boolean isUnlimited() {
+    return documentsPerSecond <= 0 && bytesPerSecond <= 0;
+  }
+
+  /** Completes once the batch may be passed on. */
+  public Mono<Void> acquire(Batch<?> batch) {
+    if (isUnlimited()) {
+      return Mono.empty();
+    }
+    long waitNanos = reserve(batch.size(), batch.getBytes(), System.nanoTime());
+    return waitNanos <= 0 ? Mono.empty() : Mono.delay(Duration.ofNanos(waitNanos)).then();
+  }
+
+  /** Returns how long the caller has to wait before using the reserved tokens. */
+  synchronized long reserve(long documents, long bytes, long nowNanos) {
+    double seconds = 0;
+    if (documentsPerSecond > 0) {
+      seconds = Math.max(seconds, documents / (documentsPerSecond * rateFactor));
+    }
+    if (bytesPerSecond > 0) {
+      seconds = Math.max(seconds, bytes / (bytesPerSecond * rateFactor));
+    }
+    long start = Math.max(nextFreeNanos, nowNanos);
+    nextFreeNanos = start + (long) (seconds * 1e9);
+    return start - nowNanos;
+  }
+
+  synchronized void recordLatency(long latencyMillis) {
+    if (latencyThresholdMillis <= 0) {
+      return;
+    }
+    if (latencyMillis > latencyThresholdMillis) {
+      if (rateFactor > MIN_RATE_FACTOR) {
+        rateFactor = Math.max(MIN_RATE_FACTOR, rateFactor / 2);
+        logger.warn(
+            "Source round trip {} ms above {} ms, reading at {}% of the configured rate",
+            latencyMillis,
+            latencyThresholdMillis,
+            Math.round(rateFactor * 100));
+      }
+    } else {
+      rateFactor = Math.min(1.0, rateFactor + RATE_FACTOR_STEP);
+    }
+  }
+
+  synchronized double getRateFactor() {
+    return rateFactor;
+  }
+
+  /** Starts pinging the source to drive the latency backoff; a no-op without a threshold. */
+  public void start(MongoDatabase sourceDb, long probeIntervalMillis) {
+    if (isUnlimited() || latencyThresholdMillis <= 0) {
+      return;
+    }
+    latencyProbe =
+        Flux.interval(Duration.ofMillis(probeIntervalMillis))
+            .concatMap(tick -> probe(sourceDb))
+            .subscribe();
+  }
+
+  public void stop() {
+    if (latencyProbe != null) {
+      latencyProbe.dispose();
+    }
+  }
+
+  private Mono<Document> probe(MongoDatabase sourceDb) {
+    long start = System.nanoTime();
+    return Mono.from(sourceDb.runCommand(new Document("ping", 1)))
+        .doOnSuccess(result -> recordLatency((System.nanoTime() - start) / 1_000_000))
+        .onErrorResume(
+            e -> {
+              logger.warn("Source latency probe failed: {}", e.getMessage());
+              recordLatency(Long.MAX_VALUE);
+              return Mono.empty();
+            });
+  }
+}
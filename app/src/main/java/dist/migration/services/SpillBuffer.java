@@ -0,0 +1,425 @@
+package dist.migration.services;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import org.bson.RawBsonDocument;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A FIFO buffer of batches between the source reader and the destination writer. Up to {@code
+ * memoryBytes} of batches are held on the heap; beyond that batches are appended to segment files
+ * under {@code directory} and read back in order once the writer catches up, so a slow
+ * destination does not hold up the source cursor. The source is only paused when the next batch
+ * would go to disk while the {@link SpillDiskBudget}, which may be shared with other buffers, is
+ * full. Every step runs on one worker, so the file I/O never blocks a driver thread and the state
+ * needs no locking.
+ *
+ * <p>Incoming batches are expected to hold their bytes in the {@link MemoryGovernor}, as batches
+ * kept in memory stay read but unwritten. A spilled batch gives its bytes back, and acquires them
+ * again once it is read back from disk.
+ */
+public class SpillBuffer<T> {
+
+  private static final Logger logger = LoggerFactory.getLogger(SpillBuffer.class);
+
+  private final DocumentFormat<T> format;
+  private final Path directory;
+  private final long memoryBytes;
+  private final long segmentBytes;
+  private final SpillDiskBudget disk;
+  private final MemoryGovernor governor;
+
+  public SpillBuffer(
+      DocumentFormat<T> format,
+      String directory,
+      long memoryBytes,
+      long segmentBytes,
+      long maxDiskBytes) {
+    this(
+        format,
+        directory,
+        memoryBytes,
+        segmentBytes,
+        new SpillDiskBudget(maxDiskBytes),
+        MemoryGovernor.unlimited());
+  }
+
+  public SpillBuffer(
+      DocumentFormat<T> format,
+      String directory,
+      long memoryBytes,
+      long segmentBytes,
+      SpillDiskBudget disk,
+      MemoryGovernor governor) {
+    this.format = format;
+    this.directory = Paths.get(directory);
+    this.memoryBytes = memoryBytes;
+    this.segmentBytes = segmentBytes;
+    this.disk = disk;
+    this.governor = governor;
+  }
+
+  public Flux<Batch<T>> buffer(Flux<Batch<T>> batches) {
+    return Flux.<Buffered<T>>create(sink -> new Run(batches, sink))
+        .concatMap(
+            buffered ->
+                buffered.fromDisk
+                    ? governor.acquire(buffered.batch.getBytes()).thenReturn(buffered.batch)
+                    : Mono.just(buffered.batch),
+            1);
+  }
+
+  /** State of one subscription; only touched from {@code worker}. */
+  private final class Run extends BaseSubscriber<Batch<T>> {
+    private final Scheduler.Worker worker = Schedulers.boundedElastic().createWorker();
+    private final FluxSink<Buffered<T>> sink;
+    private final Deque<Batch<T>> memory = new ArrayDeque<>();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Runnable wakeUp = this::wakeUp;
+    private Path spillDirectory;
+    private long memoryUsed;
+    private long diskUsed;
+    private long spilledBatches;
+    private long spilledBytes;
+    private boolean paused;
+    private boolean upstreamDone;
+    private boolean terminated;
+
+    private Run(Flux<Batch<T>> batches, FluxSink<Buffered<T>> sink) {
+      this.sink = sink;
+      sink.onRequest(n -> worker.schedule(this::drain));
+      sink.onDispose(
+          () -> {
+            cancel();
+            worker.schedule(this::cleanUp);
+          });
+      batches.subscribe(this);
+    }
+
+    @Override
+    protected void hookOnSubscribe(Subscription subscription) {
+      request(1);
+    }
+
+    @Override
+    protected void hookOnNext(Batch<T> batch) {
+      worker.schedule(
+          () -> {
+            if (terminated) {
+              governor.release(batch.getBytes());
+              return;
+            }
+            try {
+              offer(batch);
+              drain();
+              if (canRead()) {
+                request(1);
+              } else {
+                paused = true;
+                disk.await(wakeUp);
+              }
+            } catch (RuntimeException e) {
+              fail(e);
+            }
+          });
+    }
+
+    @Override
+    protected void hookOnComplete() {
+      worker.schedule(
+          () -> {
+            upstreamDone = true;
+            drain();
+          });
+    }
+
+    @Override
+    protected void hookOnError(Throwable error) {
+      worker.schedule(() -> fail(error));
+    }
+
+    private void offer(Batch<T> batch) {
+      // Once anything is on disk, later batches follow it there to keep the order.
+      boolean fits = memory.isEmpty() || memoryUsed + batch.getBytes() <= memoryBytes;
+      if (segments.isEmpty() && fits) {
+        memory.add(batch);
+        memoryUsed += batch.getBytes();
+      } else {
+        spill(batch);
+      }
+    }
+
+    private void drain() {
+      if (terminated) {
+        return;
+      }
+      try {
+        while (sink.requestedFromDownstream() > 0) {
+          Buffered<T> next = poll();
+          if (next == null) {
+            break;
+          }
+          sink.next(next);
+        }
+        resume();
+        if (upstreamDone && memory.isEmpty() && segments.isEmpty()) {
+          terminated = true;
+          sink.complete();
+        }
+      } catch (RuntimeException e) {
+        fail(e);
+      }
+    }
+
+    // Called by whichever buffer freed disk space.
+    private void wakeUp() {
+      try {
+        worker.schedule(this::resume);
+      } catch (RejectedExecutionException e) {
+        // Already cleaned up, nothing left to resume.
+      }
+    }
+
+    // A run that still holds the next batch in memory keeps reading while others fill the disk.
+    private boolean canRead() {
+      boolean needsDisk = !segments.isEmpty() || memoryUsed >= memoryBytes;
+      return !needsDisk || disk.hasRoom();
+    }
+
+    private void resume() {
+      if (paused && !terminated && canRead()) {
+        paused = false;
+        disk.stopWaiting(wakeUp);
+        request(1);
+      }
+    }
+
+    private Buffered<T> poll() {
+      Batch<T> batch = memory.poll();
+      if (batch != null) {
+        memoryUsed -= batch.getBytes();
+        return new Buffered<>(batch, false);
+      }
+      Segment segment = segments.peek();
+      if (segment == null) {
+        return null;
+      }
+      batch = segment.read();
+      if (segment.isDrained()) {
+        segments.poll();
+        diskUsed -= segment.bytes;
+        segment.delete();
+        disk.free(segment.bytes);
+      }
+      return new Buffered<>(batch, true);
+    }
+
+    private void spill(Batch<T> batch) {
+      Segment segment = segments.peekLast();
+      if (segment == null || segment.isSealed() || segment.bytes >= segmentBytes) {
+        if (segment != null) {
+          segment.seal();
+        }
+        segment = new Segment(nextSegmentPath());
+        segments.add(segment);
+      }
+      long written = segment.append(batch);
+      diskUsed += written;
+      disk.add(written);
+      spilledBatches++;
+      spilledBytes += written;
+      governor.release(batch.getBytes());
+    }
+
+    private Path nextSegmentPath() {
+      try {
+        if (spillDirectory == null) {
+          Files.createDirectories(directory);
+          spillDirectory = Files.createTempDirectory(directory, "spill-");
+          logger.info("Destination is behind, spilling batches to {}", spillDirectory);
+        }
+        return spillDirectory.resolve(String.format("%06d.bson", spilledBatches));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void fail(Throwable error) {
+      if (!terminated) {
+        terminated = true;
+        cancel();
+        sink.error(error);
+      }
+    }
+
+    private void cleanUp() {
+      disk.stopWaiting(wakeUp);
+      memory.forEach(batch -> governor.release(batch.getBytes()));
+      memory.clear();
+      segments.forEach(Segment::delete);
+      segments.clear();
+      disk.free(diskUsed);
+      diskUsed = 0;
+      if (spillDirectory != null) {
+        try {
+          Files.deleteIfExists(spillDirectory);
+        } catch (IOException e) {
+          logger.warn("Could not remove spill directory {}: {}", spillDirectory, e.getMessage());
+        }
+        logger.info("Spilled {} batches, {} bytes to disk", spilledBatches, spilledBytes);
+      }
+      worker.dispose();
+    }
+  }
+
+  private static final class Buffered<T> {
+    private final Batch<T> batch;
+    // Read back from a segment, so its bytes are not held in the governor yet.
+    private final boolean fromDisk;
+
+    private Buffered(Batch<T> batch, boolean fromDisk) {
+      this.batch = batch;
+      this.fromDisk = fromDisk;
+    }
+  }
+
+  /**
+   * An append-only file of batches, each stored as a document count, the batch's accounted bytes
+   * and the BSON documents. It is sealed before it is read so reads never overtake writes.
+   */
+  private final class Segment {
+    private final Path path;
+    private FileChannel channel;
+    private InputStream input;
+    private long bytes;
+    private long written;
+    private long read;
+
+    private Segment(Path path) {
+      this.path = path;
+      try {
+        this.channel =
+            FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private long append(Batch<T> batch) {
+      List<ByteBuffer> buffers = new ArrayList<>(batch.size() + 1);
+      ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(batch.size()).putLong(batch.getBytes()).flip();
+      buffers.add(header);
+      for (T document : batch.getDocuments()) {
+        buffers.add(format.toRaw(document).getByteBuffer().asNIO());
+      }
+      ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+      long total = 0;
+      try {
+        for (ByteBuffer buffer : array) {
+          total += buffer.remaining();
+        }
+        long remaining = total;
+        while (remaining > 0) {
+          remaining -= channel.write(array);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      bytes += total;
+      written++;
+      return total;
+    }
+
+    private boolean isSealed() {
+      return channel == null;
+    }
+
+    private void seal() {
+      try {
+        if (channel != null) {
+          channel.close();
+          channel = null;
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private Batch<T> read() {
+      try {
+        if (input == null) {
+          seal();
+          input = new BufferedInputStream(Files.newInputStream(path), 1 << 20);
+        }
+        ByteBuffer header = ByteBuffer.wrap(readFully(new byte[12]));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        int count = header.getInt();
+        long batchBytes = header.getLong();
+        List<T> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          byte[] length = readFully(new byte[4]);
+          byte[] document =
+              new byte[ByteBuffer.wrap(length).order(ByteOrder.LITTLE_ENDIAN).getInt()];
+          System.arraycopy(length, 0, document, 0, 4);
+          readFully(document, 4);
+          documents.add(format.fromRaw(new RawBsonDocument(document)));
+        }
+        read++;
+        return new Batch<>(documents, batchBytes);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private boolean isDrained() {
+      return input != null && read == written;
+    }
+
+    private byte[] readFully(byte[] buffer) throws IOException {
+      return readFully(buffer, 0);
+    }
+
+    private byte[] readFully(byte[] buffer, int offset) throws IOException {
+      int n = input.readNBytes(buffer, offset, buffer.length - offset);
+      if (n < buffer.length - offset) {
+        throw new IOException("Spill segment " + path + " is truncated");
+      }
+      return buffer;
+    }
+
+    private void delete() {
+      try {
+        seal();
+        if (input != null) {
+          input.close();
+        }
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        logger.warn("Could not remove spill segment {}: {}", path, e.getMessage());
+      }
+    }
+  }
+}
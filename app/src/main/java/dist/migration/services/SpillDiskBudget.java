@@ -0,0 +1,51 @@
+package dist.migration.services;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk space for spilled batches, shared by every {@link SpillBuffer} of an invocation so that
+ * concurrent cursors together stay within {@code spillMaxDiskBytes}. A buffer that finds the disk
+ * full pauses its reads and registers a wake-up, which runs whenever another buffer frees space.
+ */
+public class SpillDiskBudget {
+
+  private final long maxBytes;
+  private final AtomicLong usedBytes = new AtomicLong();
+  private final Set<Runnable> waiters = ConcurrentHashMap.newKeySet();
+
+  public SpillDiskBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public boolean hasRoom() {
+    return usedBytes.get() < maxBytes;
+  }
+
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  void add(long bytes) {
+    usedBytes.addAndGet(bytes);
+  }
+
+  void free(long bytes) {
+    usedBytes.addAndGet(-bytes);
+    waiters.forEach(Runnable::run);
+  }
+
+  /** Runs {@code wakeUp} each time space is freed, until {@link #stopWaiting}. */
+  void await(Runnable wakeUp) {
+    waiters.add(wakeUp);
+    // Space freed before the registration would otherwise go unnoticed.
+    if (hasRoom()) {
+      wakeUp.run();
+    }
+  }
+
+  void stopWaiting(Runnable wakeUp) {
+    waiters.remove(wakeUp);
+  }
+}
@@ -0,0 +1,50 @@
+package dist.migration.services;
+
+import java.time.Duration;
+import reactor.core.publisher.Mono;
+
+/** Wall-clock deadline after which a migration stops reading and drains in-flight writes. */
+public class TimeBudget {
+
+  private static final TimeBudget UNLIMITED = new TimeBudget(Long.MAX_VALUE);
+
+  private final long deadlineMillis;
+
+  private TimeBudget(long deadlineMillis) {
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  public static TimeBudget unlimited() {
+    return UNLIMITED;
+  }
+
+  /**
+   * A budget ending {@code reserveMillis} before the remaining time runs out, leaving room to
+   * drain pending writes and build the response.
+   */
+  public static TimeBudget of(long remainingMillis, long reserveMillis) {
+    return new TimeBudget(
+        System.currentTimeMillis() + Math.max(0, remainingMillis - reserveMillis));
+  }
+
+  public boolean isUnlimited() {
+    return deadlineMillis == Long.MAX_VALUE;
+  }
+
+  public long remainingMillis() {
+    return isUnlimited()
+        ? Long.MAX_VALUE
+        : Math.max(0, deadlineMillis - System.currentTimeMillis());
+  }
+
+  public boolean isExhausted() {
+    return remainingMillis() == 0;
+  }
+
+  /** Emits once the deadline passes; never emits for an unlimited budget. */
+  public Mono<Long> expiry() {
+    return isUnlimited()
+        ? Mono.never()
+        : Mono.defer(() -> Mono.delay(Duration.ofMillis(remainingMillis())));
+  }
+}
@@ -0,0 +1,27 @@
+package dist.migration.services;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Getter;
+
+/** Outcome of comparing one collection between the source and the destination. */
+@Builder
+@Getter
+public class VerificationReport {
+  private final String collectionName;
+  // ranges compares digests of every _id range, sampled compares random documents byte for byte
+  private final String mode;
+  private final int rangesChecked;
+  private final long documentsChecked;
+  private final long countDelta;
+  private final List<RangeMismatch> mismatches;
+  private final long missingDocuments;
+  private final long differentDocuments;
+
+  public boolean isMatch() {
+    return countDelta == 0
+        && (mismatches == null || mismatches.isEmpty())
+        && missingDocuments == 0
+        && differentDocuments == 0;
+  }
+}
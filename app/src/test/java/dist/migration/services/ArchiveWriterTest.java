@@ -0,0 +1,131 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArchiveWriterTest {
+
+  @TempDir Path directory;
+
+  private static List<RawBsonDocument> documents(int count) {
+    List<RawBsonDocument> documents = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      BsonDocument document =
+          new BsonDocument("_id", new BsonInt32(i))
+              .append("payload", new BsonBinary(new byte[i % 7 == 0 ? 40_000 : 100]));
+      documents.add(new RawBsonDocument(document, new BsonDocumentCodec()));
+    }
+    return documents;
+  }
+
+  private List<Path> write(List<RawBsonDocument> documents) {
+    try (ArchiveWriter writer =
+        new ArchiveWriter(directory, 100_000, 4096, Deflater.BEST_SPEED)) {
+      documents.forEach(writer::write);
+      return writer.getSegments();
+    }
+  }
+
+  @Test
+  void readsBackEveryDocumentAcrossSegments() {
+    List<RawBsonDocument> documents = documents(200);
+
+    List<Path> segments = write(documents);
+
+    assertTrue(segments.size() > 1);
+    List<RawBsonDocument> read = new ArrayList<>();
+    // A buffer smaller than the largest document has to grow.
+    try (ArchiveReader reader = new ArchiveReader(segments, 1024)) {
+      RawBsonDocument document;
+      while ((document = reader.next()) != null) {
+        read.add(document);
+      }
+    }
+    assertEquals(documents, read);
+  }
+
+  @Test
+  void concatenatedSegmentsAreOneGzipStream() throws Exception {
+    List<RawBsonDocument> documents = documents(50);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (RawBsonDocument document : documents) {
+      ByteBuffer bytes = document.getByteBuffer().asNIO();
+      byte[] copy = new byte[bytes.remaining()];
+      bytes.get(copy);
+      expected.write(copy);
+    }
+
+    ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+    for (Path segment : write(documents)) {
+      concatenated.write(Files.readAllBytes(segment));
+    }
+
+    try (GZIPInputStream gzip =
+        new GZIPInputStream(new ByteArrayInputStream(concatenated.toByteArray()))) {
+      assertArrayEquals(expected.toByteArray(), gzip.readAllBytes());
+    }
+  }
+
+  @Test
+  void rejectsCorruptSegments() throws Exception {
+    List<Path> segments = write(documents(10));
+    byte[] bytes = Files.readAllBytes(segments.get(0));
+    bytes[bytes.length - 6] ^= 0x55;
+    Files.write(segments.get(0), bytes);
+
+    try (ArchiveReader reader = new ArchiveReader(segments, 1024)) {
+      assertThrows(
+          IllegalStateException.class,
+          () -> {
+            while (reader.next() != null) {
+              // drain
+            }
+          });
+    }
+  }
+
+  @Test
+  void continuedArchiveReportsEachFinishedSegmentAfterTheExistingOnes() {
+    List<RawBsonDocument> documents = documents(200);
+    List<Integer> finished = new ArrayList<>();
+    List<RawBsonDocument> lastDocuments = new ArrayList<>();
+
+    List<Path> segments;
+    try (ArchiveWriter writer =
+        new ArchiveWriter(
+            directory,
+            3,
+            100_000,
+            4096,
+            Deflater.BEST_SPEED,
+            (count, last) -> {
+              finished.add(count);
+              lastDocuments.add(last);
+            })) {
+      documents.forEach(writer::write);
+      segments = writer.getSegments();
+    }
+
+    assertEquals("000003.bson.gz", segments.get(0).getFileName().toString());
+    assertEquals(segments.size(), finished.size());
+    assertEquals(3 + segments.size(), finished.get(finished.size() - 1));
+    // The last segment is finished by close and ends with the last document.
+    assertEquals(documents.get(199), lastDocuments.get(lastDocuments.size() - 1));
+  }
+}
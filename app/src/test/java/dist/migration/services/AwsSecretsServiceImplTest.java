@@ -0,0 +1,73 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueResponse;
+import software.amazon.awssdk.services.secretsmanager.model.ResourceNotFoundException;
+
+class AwsSecretsServiceImplTest {
+
+  private final SecretsManagerClient client = mock(SecretsManagerClient.class);
+
+  @Test
+  void cachesSecretsWithinTtl() {
+    when(client.getSecretValue(any(GetSecretValueRequest.class)))
+        .thenAnswer(
+            invocation ->
+                GetSecretValueResponse.builder()
+                    .secretString(
+                        "value-of-" + invocation.<GetSecretValueRequest>getArgument(0).secretId())
+                    .build());
+    AwsSecretsServiceImpl service = new AwsSecretsServiceImpl(client, Duration.ofMinutes(5));
+
+    assertEquals("value-of-user", service.getSecret("user"));
+    assertEquals("value-of-user", service.getSecret("user"));
+
+    verify(client, times(1)).getSecretValue(any(GetSecretValueRequest.class));
+  }
+
+  @Test
+  void refetchesExpiredSecrets() {
+    when(client.getSecretValue(any(GetSecretValueRequest.class)))
+        .thenReturn(GetSecretValueResponse.builder().secretString("first").build())
+        .thenReturn(GetSecretValueResponse.builder().secretString("rotated").build());
+    AwsSecretsServiceImpl service = new AwsSecretsServiceImpl(client, Duration.ZERO);
+
+    assertEquals("first", service.getSecret("password"));
+    assertEquals("rotated", service.getSecret("password"));
+  }
+
+  @Test
+  void resolvesDistinctSecretsTogether() {
+    when(client.getSecretValue(any(GetSecretValueRequest.class)))
+        .thenAnswer(
+            invocation ->
+                GetSecretValueResponse.builder()
+                    .secretString(
+                        "value-of-" + invocation.<GetSecretValueRequest>getArgument(0).secretId())
+                    .build());
+    AwsSecretsServiceImpl service = new AwsSecretsServiceImpl(client, Duration.ofMinutes(5));
+
+    Map<String, String> secrets = service.getSecrets(List.of("user", "password", "user"));
+
+    assertEquals(Map.of("user", "value-of-user", "password", "value-of-password"), secrets);
+    verify(client, times(2)).getSecretValue(any(GetSecretValueRequest.class));
+  }
+
+  @Test
+  void wrapsLookupFailures() {
+    when(client.getSecretValue(any(GetSecretValueRequest.class)))
+        .thenThrow(ResourceNotFoundException.builder().message("missing").build());
+    AwsSecretsServiceImpl service = new AwsSecretsServiceImpl(client, Duration.ofMinutes(5));
+
+    assertThrows(AwsSecretsServiceException.class, () -> service.getSecret("missing"));
+  }
+}
@@ -0,0 +1,48 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+class ByteBudgetBatcherTest {
+
+  @Test
+  void closesBatchAtByteCeiling() {
+    ByteBudgetBatcher batcher = new ByteBudgetBatcher(10, 100);
+
+    StepVerifier.create(batcher.batch(Flux.just(4L, 4L, 4L, 9L, 1L), Long::longValue))
+        .assertNext(
+            batch -> {
+              assertEquals(List.of(4L, 4L), batch.getDocuments());
+              assertEquals(8, batch.getBytes());
+            })
+        .assertNext(batch -> assertEquals(List.of(4L), batch.getDocuments()))
+        .assertNext(batch -> assertEquals(List.of(9L, 1L), batch.getDocuments()))
+        .verifyComplete();
+  }
+
+  @Test
+  void closesBatchAtDocumentCeiling() {
+    ByteBudgetBatcher batcher = new ByteBudgetBatcher(1_000, 2);
+
+    StepVerifier.create(batcher.batch(Flux.just(1L, 1L, 1L, 1L, 1L), Long::longValue))
+        .expectNextMatches(batch -> batch.size() == 2)
+        .expectNextMatches(batch -> batch.size() == 2)
+        .expectNextMatches(batch -> batch.size() == 1)
+        .verifyComplete();
+  }
+
+  @Test
+  void oversizedDocumentIsSentAlone() {
+    ByteBudgetBatcher batcher = new ByteBudgetBatcher(10, 100);
+
+    StepVerifier.create(batcher.batch(Flux.just(2L, 50L, 2L), Long::longValue))
+        .expectNextMatches(batch -> batch.getDocuments().equals(List.of(2L)))
+        .expectNextMatches(batch -> batch.getDocuments().equals(List.of(50L)))
+        .expectNextMatches(batch -> batch.getDocuments().equals(List.of(2L)))
+        .verifyComplete();
+  }
+}
@@ -0,0 +1,106 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import dist.migration.configs.DatabaseProperties;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Subscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ChangeStreamTailerTest {
+
+  private static ChangeStreamDocument<Document> event(String json) {
+    return ChangeStreamDocument.createCodec(
+            Document.class, MongoClientSettings.getDefaultCodecRegistry())
+        .decode(new BsonDocumentReader(BsonDocument.parse(json)), DecoderContext.builder().build());
+  }
+
+  @Test
+  void pipelineKeepsEventsOfTheMigratedCollections() {
+    List<Bson> pipeline = ChangeStreamTailer.pipeline(List.of("orders"));
+
+    assertEquals(1, pipeline.size());
+    assertTrue(pipeline.get(0).toBsonDocument().getDocument("$match").toJson().contains("ns.coll"));
+  }
+
+  @Test
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  void invalidatedStreamFailsAfterApplyingEarlierEventsWithoutSavingItsToken() {
+    MongoDatabase source = mock(MongoDatabase.class);
+    MongoDatabase destination = mock(MongoDatabase.class);
+    MongoCollection<BsonDocument> state = mock(MongoCollection.class);
+    when(destination.getCollection(
+            MongoMigrationService.MIGRATION_METADATA_COLLECTION, BsonDocument.class))
+        .thenReturn(state);
+    FindPublisher<BsonDocument> saved = mock(FindPublisher.class);
+    when(state.find(any(Bson.class))).thenReturn(saved);
+    when(saved.first())
+        .thenReturn(
+            Mono.just(new BsonDocument("startAtOperationTime", new BsonTimestamp(1, 0))));
+    when(state.updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class)))
+        .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+    when(source.runCommand(any(Bson.class), eq(BsonDocument.class)))
+        .thenReturn(Mono.just(new BsonDocument("operationTime", new BsonTimestamp(100, 0))));
+
+    ChangeStreamPublisher<Document> stream = mock(ChangeStreamPublisher.class, RETURNS_SELF);
+    List<ChangeStreamDocument<Document>> events =
+        List.of(
+            event(
+                "{\"_id\": {\"_data\": \"01\"}, \"operationType\": \"insert\","
+                    + " \"clusterTime\": {\"$timestamp\": {\"t\": 5, \"i\": 0}},"
+                    + " \"ns\": {\"db\": \"shop\", \"coll\": \"orders\"},"
+                    + " \"documentKey\": {\"_id\": 1}, \"fullDocument\": {\"_id\": 1}}"),
+            event(
+                "{\"_id\": {\"_data\": \"02\"}, \"operationType\": \"invalidate\","
+                    + " \"clusterTime\": {\"$timestamp\": {\"t\": 6, \"i\": 0}}}"));
+    doAnswer(
+            invocation -> {
+              Flux.fromIterable(events).subscribe((Subscriber) invocation.getArgument(0));
+              return null;
+            })
+        .when(stream)
+        .subscribe(any());
+    when(source.watch(anyList())).thenReturn(stream);
+    MongoCollection<Document> orders = mock(MongoCollection.class);
+    when(destination.getCollection("orders")).thenReturn(orders);
+    when(orders.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+        .thenReturn(Mono.just(BulkWriteResult.unacknowledged()));
+
+    StepVerifier.create(
+            new ChangeStreamTailer(source, destination, new DatabaseProperties())
+                .tail(new MigrationStats()))
+        .expectError(MongoMigrationServiceException.class)
+        .verify();
+
+    verify(orders).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    ArgumentCaptor<Bson> update = ArgumentCaptor.forClass(Bson.class);
+    verify(state).updateOne(any(Bson.class), update.capture(), any(UpdateOptions.class));
+    String token = update.getValue().toBsonDocument().toJson();
+    assertTrue(token.contains("\"01\""), token);
+    assertFalse(token.contains("\"02\""), token);
+  }
+}
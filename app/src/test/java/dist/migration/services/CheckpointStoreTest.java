@@ -0,0 +1,58 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.junit.jupiter.api.Test;
+
+class CheckpointStoreTest {
+
+  @Test
+  void newCheckpointRoundTrips() {
+    IdRange range = new IdRange(1, 3, new BsonInt32(10), null);
+
+    BsonDocument document = CheckpointStore.toDocument("orders", range);
+    Checkpoint checkpoint = CheckpointStore.toCheckpoint(document);
+
+    assertEquals("checkpoint:orders:1", document.getString("_id").getValue());
+    assertEquals(1, checkpoint.getRange().getIndex());
+    assertEquals(3, checkpoint.getRange().getCount());
+    assertEquals(new BsonInt32(10), checkpoint.getRange().getLowerBound());
+    assertNull(checkpoint.getRange().getUpperBound());
+    assertNull(checkpoint.getLastId());
+    assertFalse(checkpoint.isCompleted());
+    assertEquals(0, checkpoint.getDocuments());
+  }
+
+  @Test
+  void advancedCheckpointExposesWatermark() {
+    BsonObjectId lastId = new BsonObjectId();
+    BsonDocument document =
+        CheckpointStore.toDocument("orders", new IdRange(0, 1, null, null))
+            .append("lastId", lastId)
+            .append("documents", new BsonInt64(1200))
+            .append("completed", BsonBoolean.TRUE);
+
+    Checkpoint checkpoint = CheckpointStore.toCheckpoint(document);
+
+    assertEquals(lastId, checkpoint.getLastId());
+    assertEquals(1200, checkpoint.getDocuments());
+    assertTrue(checkpoint.isCompleted());
+    assertNull(checkpoint.getRange().getLowerBound());
+  }
+
+  @Test
+  void filteredCheckpointsAreKeptApartPerFilter() {
+    IdRange range = new IdRange(0, 1, null, null);
+
+    BsonDocument document = CheckpointStore.toDocument("orders", "0123456789abcdef", range);
+
+    assertEquals("checkpoint:orders:0123456789abcdef:0", document.getString("_id").getValue());
+    assertEquals("0123456789abcdef", document.getString("filterHash").getValue());
+    assertTrue(CheckpointStore.toDocument("orders", range).isNull("filterHash"));
+  }
+}
@@ -0,0 +1,108 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.mongodb.client.model.Filters;
+import dist.migration.configs.CollectionProperties;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class CollectionOptionsTest {
+
+  @Test
+  void emptyPropertiesPushNothingDown() {
+    CollectionOptions options = CollectionOptions.of(new CollectionProperties());
+
+    assertNull(options.getFilter());
+    assertNull(options.getProjection());
+    assertNull(options.getTransform());
+    assertNull(options.filter(null));
+    assertTrue(options.isEmpty());
+    assertNull(options.filterHash());
+  }
+
+  @Test
+  void filterHashIsStablePerFilter() {
+    CollectionProperties acme = new CollectionProperties();
+    acme.setFilter("{\"tenantId\": \"acme\"}");
+    CollectionProperties other = new CollectionProperties();
+    other.setFilter("{\"tenantId\": \"other\"}");
+
+    String hash = CollectionOptions.of(acme).filterHash();
+
+    assertEquals(16, hash.length());
+    assertEquals(hash, CollectionOptions.of(acme).filterHash());
+    assertNotEquals(hash, CollectionOptions.of(other).filterHash());
+  }
+
+  @Test
+  void filterIsCombinedWithRange() {
+    CollectionProperties properties = new CollectionProperties();
+    properties.setFilter("{\"tenantId\": \"acme\"}");
+    CollectionOptions options = CollectionOptions.of(properties);
+
+    BsonDocument combined = options.filter(Filters.gte("_id", 10)).toBsonDocument();
+
+    assertEquals(2, combined.getArray("$and").size());
+    assertEquals(BsonDocument.parse("{\"tenantId\": \"acme\"}"), options.filter(null));
+  }
+
+  @Test
+  void rejectsProjectionWithoutId() {
+    CollectionProperties properties = new CollectionProperties();
+    properties.setProjection("{\"_id\": 0, \"name\": 1}");
+
+    assertThrows(IllegalArgumentException.class, () -> CollectionOptions.of(properties));
+
+    properties.setProjection("{\"_id\": false}");
+    assertThrows(IllegalArgumentException.class, () -> CollectionOptions.of(properties));
+
+    properties.setProjection("{\"data\": 0}");
+    assertNotNull(CollectionOptions.of(properties).getProjection());
+  }
+
+  @Test
+  void transformDropsRenamesAndSets() {
+    DocumentTransform transform =
+        new DocumentTransform(
+            List.of("data"), Map.of("name", "displayName"), Map.of("migrated", true));
+
+    Document result =
+        transform.apply(
+            new Document("_id", 1).append("data", "x").append("name", "Name_1").append("n", 2));
+
+    Document expected =
+        new Document("_id", 1)
+            .append("n", 2)
+            .append("displayName", "Name_1")
+            .append("migrated", true);
+    assertEquals(expected, result);
+  }
+
+  @Test
+  void transformCannotTouchId() {
+    assertThrows(
+        IllegalArgumentException.class, () -> new DocumentTransform(List.of("_id"), null, null));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new DocumentTransform(null, Map.of("legacyId", "_id"), null));
+  }
+
+  @Test
+  void overridesReplaceConfiguredFields() {
+    CollectionProperties configured = new CollectionProperties();
+    configured.setFilter("{\"a\": 1}");
+    configured.setDrop(List.of("data"));
+    CollectionProperties overrides = new CollectionProperties();
+    overrides.setFilter("{\"b\": 2}");
+
+    CollectionProperties merged = configured.overriddenBy(overrides);
+
+    assertEquals("{\"b\": 2}", merged.getFilter());
+    assertEquals(List.of("data"), merged.getDrop());
+    assertEquals("{\"a\": 1}", configured.getFilter());
+  }
+}
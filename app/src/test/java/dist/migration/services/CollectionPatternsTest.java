@@ -0,0 +1,41 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonRegularExpression;
+import org.junit.jupiter.api.Test;
+
+class CollectionPatternsTest {
+
+  @Test
+  void emptyPatternsSelectAllButSystemCollections() {
+    assertTrue(CollectionPatterns.matches(List.of(), "orders"));
+    assertTrue(CollectionPatterns.matches(null, "orders"));
+    assertFalse(CollectionPatterns.matches(List.of(), "system.views"));
+  }
+
+  @Test
+  void globsMatchWholeName() {
+    List<String> patterns = List.of("orders_*", "audit.202?");
+
+    assertTrue(CollectionPatterns.matches(patterns, "orders_2023"));
+    assertTrue(CollectionPatterns.matches(patterns, "audit.2024"));
+    assertFalse(CollectionPatterns.matches(patterns, "archived_orders_2023"));
+    assertFalse(CollectionPatterns.matches(patterns, "audit.20245"));
+  }
+
+  @Test
+  void filterSelectsTheSameCollectionsOnAField() {
+    assertEquals(
+        new BsonDocument(
+            "ns.coll", new BsonDocument("$not", new BsonRegularExpression("^system\\."))),
+        CollectionPatterns.toFilter("ns.coll", List.of()).toBsonDocument());
+
+    String filter =
+        CollectionPatterns.toFilter("ns.coll", List.of("orders_*")).toBsonDocument().toJson();
+    assertTrue(filter.contains("^\\\\Qo\\\\E"), filter);
+    assertTrue(filter.contains(".*$"), filter);
+  }
+}
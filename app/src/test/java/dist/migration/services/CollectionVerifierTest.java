@@ -0,0 +1,107 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import reactor.util.function.Tuples;
+
+class CollectionVerifierTest {
+
+  private final IdRange first = new IdRange(0, 2, null, new BsonInt32(100));
+  private final IdRange second = new IdRange(1, 2, new BsonInt32(100), null);
+
+  @Test
+  void digestPipelineGroupsRangeServerSide() {
+    List<Bson> pipeline = CollectionVerifier.digestPipeline(second, true);
+
+    BsonDocument group = pipeline.get(1).toBsonDocument().getDocument("$group");
+    assertEquals(2, pipeline.size());
+    assertTrue(group.containsKey("count"));
+    assertTrue(group.containsKey("bytes"));
+    assertTrue(group.getDocument("hash").getDocument("$sum").containsKey("$mod"));
+    assertFalse(
+        CollectionVerifier.digestPipeline(second, false)
+            .get(1)
+            .toBsonDocument()
+            .getDocument("$group")
+            .containsKey("hash"));
+  }
+
+  @Test
+  void digestReadsIntLongAndDoubleSums() {
+    RangeDigest digest =
+        RangeDigest.fromDocument(
+            new BsonDocument("count", new BsonInt32(3))
+                .append("bytes", new BsonInt64(3_000_000_000L))
+                .append("hash", new BsonDouble(42.0)));
+
+    assertEquals(3, digest.getCount());
+    assertEquals(3_000_000_000L, digest.getBytes());
+    assertEquals(42L, digest.getHash());
+  }
+
+  @Test
+  void reportsMismatchedRangesAndCountDelta() {
+    RangeDigest same = new RangeDigest(10, 1000, 7L);
+    VerificationReport report =
+        CollectionVerifier.rangeReport(
+            "orders",
+            List.of(
+                Tuples.of(first, same, new RangeDigest(10, 1000, 7L)),
+                Tuples.of(second, new RangeDigest(5, 500, 3L), new RangeDigest(4, 400, 2L))),
+            15,
+            14);
+
+    assertFalse(report.isMatch());
+    assertEquals(2, report.getRangesChecked());
+    assertEquals(15, report.getDocumentsChecked());
+    assertEquals(-1, report.getCountDelta());
+    assertEquals(1, report.getMismatches().size());
+    assertEquals(-1, report.getMismatches().get(0).getCountDelta());
+    assertFalse(report.getMismatches().get(0).getHashMatches());
+  }
+
+  @Test
+  void differentHashWithSameCountIsAMismatch() {
+    VerificationReport report =
+        CollectionVerifier.rangeReport(
+            "orders",
+            List.of(
+                Tuples.of(first, new RangeDigest(10, 1000, 7L), new RangeDigest(10, 1000, 8L))),
+            10,
+            10);
+
+    assertFalse(report.isMatch());
+    assertEquals(0, report.getCountDelta());
+  }
+
+  @Test
+  void identicalDigestsMatch() {
+    VerificationReport report =
+        CollectionVerifier.rangeReport(
+            "orders",
+            List.of(Tuples.of(first, RangeDigest.EMPTY, new RangeDigest(0, 0, null))),
+            0,
+            0);
+
+    assertTrue(report.isMatch());
+  }
+
+  @Test
+  void documentsOutsideThePlannedRangesShowInTheCountDelta() {
+    RangeDigest same = new RangeDigest(10, 1000, 7L);
+    VerificationReport report =
+        CollectionVerifier.rangeReport(
+            "orders", List.of(Tuples.of(first, same, new RangeDigest(10, 1000, 7L))), 10, 12);
+
+    assertTrue(report.getMismatches().isEmpty());
+    assertEquals(2, report.getCountDelta());
+    assertFalse(report.isMatch());
+  }
+}
@@ -0,0 +1,39 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Date;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.Test;
+
+class DocumentFormatTest {
+
+  @Test
+  void documentSizeIsTheEncodedBsonSize() {
+    Document document =
+        new Document("_id", 1L)
+            .append("payload", new Binary(new byte[1000]))
+            .append("createdAt", new Date(0))
+            .append("price", 12.5);
+
+    long bsonSize = DocumentFormat.RAW.sizeOf(DocumentFormat.DOCUMENT.toRaw(document));
+
+    assertEquals(bsonSize, DocumentFormat.DOCUMENT.sizeOf(document));
+    // Extended JSON would have counted the binary as base64, a third larger.
+    assertTrue(bsonSize < 1100);
+  }
+
+  @Test
+  void largeDocumentsAreMeasuredRepeatedly() {
+    Document large = new Document("_id", 1).append("payload", new Binary(new byte[2_000_000]));
+    Document small = new Document("_id", 2);
+
+    assertEquals(
+        DocumentFormat.RAW.sizeOf(DocumentFormat.DOCUMENT.toRaw(large)),
+        DocumentFormat.DOCUMENT.sizeOf(large));
+    assertEquals(
+        DocumentFormat.RAW.sizeOf(DocumentFormat.DOCUMENT.toRaw(small)),
+        DocumentFormat.DOCUMENT.sizeOf(small));
+  }
+}
@@ -0,0 +1,103 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class IdRangePlannerTest {
+
+  @Test
+  void singlePartitionCoversWholeCollection() {
+    StepVerifier.create(IdRangePlanner.plan(null, 1))
+        .assertNext(
+            ranges -> {
+              assertEquals(1, ranges.size());
+              assertNull(ranges.get(0).getLowerBound());
+              assertNull(ranges.get(0).getUpperBound());
+              assertEquals(new BsonDocument(), ranges.get(0).toFilter());
+            })
+        .verifyComplete();
+  }
+
+  @Test
+  void boundariesProduceContiguousRanges() {
+    List<IdRange> ranges =
+        IdRangePlanner.fromBoundaries(List.of(new BsonInt32(10), new BsonInt32(20)));
+
+    assertEquals(3, ranges.size());
+    assertNull(ranges.get(0).getLowerBound());
+    assertEquals(new BsonInt32(10), ranges.get(0).getUpperBound());
+    assertEquals(new BsonInt32(10), ranges.get(1).getLowerBound());
+    assertEquals(new BsonInt32(20), ranges.get(1).getUpperBound());
+    assertEquals(new BsonInt32(20), ranges.get(2).getLowerBound());
+    assertNull(ranges.get(2).getUpperBound());
+    ranges.forEach(range -> assertEquals(3, range.getCount()));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static MongoCollection<BsonDocument> collectionWithIds(
+      BsonValue lowest, BsonValue highest) {
+    MongoCollection<BsonDocument> collection = mock(MongoCollection.class);
+    FindPublisher<BsonDocument> ascending = mock(FindPublisher.class, RETURNS_SELF);
+    FindPublisher<BsonDocument> descending = mock(FindPublisher.class, RETURNS_SELF);
+    when(ascending.first()).thenReturn(Mono.just(new BsonDocument("_id", lowest)));
+    when(descending.first()).thenReturn(Mono.just(new BsonDocument("_id", highest)));
+    when(collection.find(any(Bson.class), eq(BsonDocument.class)))
+        .thenReturn(ascending, descending);
+    return collection;
+  }
+
+  @Test
+  void mixedIdTypesFallBackToOnePartition() {
+    MongoCollection<BsonDocument> collection =
+        collectionWithIds(new BsonString("legacy-1"), new BsonObjectId());
+
+    StepVerifier.create(IdRangePlanner.plan(collection, 4))
+        .assertNext(
+            ranges -> {
+              assertEquals(1, ranges.size());
+              assertEquals(new BsonDocument(), ranges.get(0).toFilter());
+            })
+        .verifyComplete();
+    verify(collection, never()).aggregate(anyList(), eq(BsonDocument.class));
+  }
+
+  @Test
+  void numericIdTypesCountAsOneClass() {
+    assertEquals(
+        IdRange.typeClass(new BsonInt32(1)), IdRange.typeClass(new BsonInt64(1L << 40)));
+    assertNotEquals(
+        IdRange.typeClass(new BsonInt32(1)), IdRange.typeClass(new BsonString("1")));
+  }
+
+  @Test
+  void resumeFilterIncludesTypesSortingAfterTheLastId() {
+    BsonDocument after = IdRange.after(new BsonString("m")).toBsonDocument();
+
+    List<BsonValue> alternatives = after.getArray("$or").getValues();
+    assertEquals(
+        new BsonDocument("_id", new BsonDocument("$gt", new BsonString("m"))),
+        alternatives.get(0));
+    List<BsonValue> laterTypes =
+        alternatives.get(1).asDocument().getDocument("_id").getArray("$type").getValues();
+    assertTrue(laterTypes.contains(new BsonInt32(BsonType.OBJECT_ID.getValue())));
+    assertFalse(laterTypes.contains(new BsonInt32(BsonType.INT32.getValue())));
+  }
+}
@@ -0,0 +1,65 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dist.migration.configs.DatabaseProperties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+class MemoryGovernorTest {
+
+  @Test
+  void waitsUntilReleasedBytesMakeRoom() {
+    MemoryGovernor governor = new MemoryGovernor(100);
+    StepVerifier.create(governor.acquire(60)).verifyComplete();
+
+    AtomicBoolean granted = new AtomicBoolean();
+    governor.acquire(60).subscribe(null, null, () -> granted.set(true));
+    assertFalse(granted.get());
+
+    governor.release(60);
+    assertTrue(granted.get());
+    assertEquals(60, governor.getInFlightBytes());
+    assertEquals(60, governor.getPeakBytes());
+  }
+
+  @Test
+  void oversizedBatchGoesThroughAlone() {
+    MemoryGovernor governor = new MemoryGovernor(100);
+
+    StepVerifier.create(governor.acquire(500)).verifyComplete();
+    AtomicBoolean granted = new AtomicBoolean();
+    governor.acquire(1).subscribe(null, null, () -> granted.set(true));
+    assertFalse(granted.get());
+
+    governor.release(500);
+    assertTrue(granted.get());
+    assertEquals(500, governor.getPeakBytes());
+  }
+
+  @Test
+  void cancelledWaiterDoesNotHoldBytes() {
+    MemoryGovernor governor = new MemoryGovernor(100);
+    StepVerifier.create(governor.acquire(100)).verifyComplete();
+
+    Disposable waiting = governor.acquire(50).subscribe();
+    waiting.dispose();
+    governor.release(100);
+
+    assertEquals(0, governor.getInFlightBytes());
+  }
+
+  @Test
+  void configuredBudgetWinsOverFraction() {
+    DatabaseProperties properties = new DatabaseProperties();
+    properties.setMemoryBudgetFraction(0.5);
+    assertEquals(
+        Math.min(1_000_000, Runtime.getRuntime().maxMemory()) / 2,
+        MemoryGovernor.of(properties, 1_000_000).getBudgetBytes());
+
+    properties.setMemoryBudgetBytes(4096);
+    assertEquals(4096, MemoryGovernor.of(properties, 1_000_000).getBudgetBytes());
+  }
+}
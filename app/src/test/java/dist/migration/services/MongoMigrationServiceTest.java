@@ -1,27 +1,57 @@
 package dist.migration.services;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.client.result.UpdateResult;
 import com.mongodb.reactivestreams.client.FindPublisher;
 import com.mongodb.reactivestreams.client.ListIndexesPublisher;
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import com.mongodb.reactivestreams.client.MongoDatabase;
 
+import dist.migration.configs.CollectionProperties;
+import dist.migration.configs.DatabaseProperties;
+import dist.migration.configs.WriteMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
 import org.bson.BsonObjectId;
 import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.conversions.Bson;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 
@@ -44,6 +74,8 @@ class MongoMigrationServiceTest {
   @Mock
   private MongoCollection<Document> mockDestCollection;
 
+  @TempDir Path archive;
+
   private AutoCloseable closeable;
   private MongoMigrationService service;
 
@@ -189,4 +221,360 @@ class MongoMigrationServiceTest {
     StepVerifier.create(service.migrate()).expectComplete().verify();
   }
 
+  @Test
+  void skipDuplicatesCountsDocumentsAlreadyCopied() {
+    DatabaseProperties properties = new DatabaseProperties();
+    properties.setWriteMode(WriteMode.skipDuplicates);
+    service = new MongoMigrationService(
+        mockSourceClient, "sourceDb", mockDestClient, "destDb", properties);
+
+    FindPublisher<Document> findPublisherMock = mock(FindPublisher.class);
+    doAnswer(invocation -> {
+      Flux.just(new Document("_id", 1), new Document("_id", 2), new Document("_id", 3))
+          .subscribe(invocation.<Subscriber<Document>>getArgument(0));
+      return null;
+    }).when(findPublisherMock).subscribe(any());
+    ListIndexesPublisher<Document> listIndexesPublisherMock = mock(ListIndexesPublisher.class);
+    doAnswer(invocation -> {
+      Flux.<Document>empty().subscribe(invocation.<Subscriber<Document>>getArgument(0));
+      return null;
+    }).when(listIndexesPublisherMock).subscribe(any());
+    when(mockSourceCollection.find()).thenReturn(findPublisherMock);
+    when(mockSourceCollection.listIndexes()).thenReturn(listIndexesPublisherMock);
+
+    // _id 1 and 2 are already in the destination, only _id 3 is inserted.
+    BulkWriteResult partial = mock(BulkWriteResult.class);
+    when(partial.getInsertedCount()).thenReturn(1);
+    MongoBulkWriteException duplicates = new MongoBulkWriteException(
+        partial,
+        List.of(
+            new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0),
+            new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 1)),
+        null,
+        new ServerAddress(),
+        Set.of());
+    when(mockDestCollection.insertMany(anyList(), any(InsertManyOptions.class)))
+        .thenReturn(Mono.error(duplicates));
+
+    StepVerifier.create(service.migrateCollection("collection1"))
+        .assertNext(stats -> {
+          assertEquals(1, stats.getDocuments().get());
+          assertEquals(2, stats.getSkippedDocuments().get());
+        })
+        .verifyComplete();
+  }
+
+  @Test
+  void otherWriteErrorsAreNotSkipped() {
+    MongoBulkWriteException validation = new MongoBulkWriteException(
+        mock(BulkWriteResult.class),
+        List.of(
+            new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0),
+            new BulkWriteError(121, "Document failed validation", new BsonDocument(), 1)),
+        null,
+        new ServerAddress(),
+        Set.of());
+
+    assertFalse(MongoMigrationService.isDuplicateKeyOnly(validation));
+  }
+
+  @Test
+  void exhaustedBudgetStopsTheCopyWithoutATokenWhenNotCheckpointing() {
+    FindPublisher<Document> findPublisherMock = mock(FindPublisher.class);
+    doAnswer(invocation -> {
+      Flux.just(new Document("_id", 1))
+          .concatWith(Flux.never())
+          .subscribe(invocation.<Subscriber<Document>>getArgument(0));
+      return null;
+    }).when(findPublisherMock).subscribe(any());
+    when(mockSourceCollection.find()).thenReturn(findPublisherMock);
+    when(mockSourceCollection.listIndexes())
+        .thenReturn(emitting(mock(ListIndexesPublisher.class), List.of()));
+    when(mockDestCollection.insertMany(anyList()))
+        .thenReturn(Mono.just(InsertManyResult.acknowledged(Map.of(0, new BsonInt32(1)))));
+
+    StepVerifier.create(service.migrateCollection("collection1", TimeBudget.of(0, 0)))
+        .assertNext(stats -> {
+          assertFalse(stats.isCompleted());
+          assertNull(stats.getContinuationToken());
+        })
+        .verifyComplete();
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static <P extends Publisher<?>> P emitting(P publisher, List<?> items) {
+    doAnswer(invocation -> {
+      Flux.fromIterable(items).subscribe((Subscriber) invocation.getArgument(0));
+      return null;
+    }).when(publisher).subscribe(any());
+    return publisher;
+  }
+
+  /** Checkpointed copy of collection1 whose metadata collection holds the given checkpoints. */
+  @SuppressWarnings("unchecked")
+  private MongoCollection<BsonDocument> checkpointedCopy(
+      List<BsonDocument> checkpoints, List<Document> sourceDocuments) {
+    return checkpointedCopy(WriteMode.insert, checkpoints, sourceDocuments);
+  }
+
+  private MongoCollection<BsonDocument> checkpointedCopy(
+      WriteMode writeMode, List<BsonDocument> checkpoints, List<Document> sourceDocuments) {
+    DatabaseProperties properties = new DatabaseProperties();
+    properties.setCheckpointing(true);
+    properties.setWriteMode(writeMode);
+    service = new MongoMigrationService(
+        mockSourceClient, "sourceDb", mockDestClient, "destDb", properties);
+
+    MongoCollection<BsonDocument> metadata = mock(MongoCollection.class);
+    when(mockDestDatabase.getCollection(
+            MongoMigrationService.MIGRATION_METADATA_COLLECTION, BsonDocument.class))
+        .thenReturn(metadata);
+    when(metadata.find(any(Bson.class)))
+        .thenReturn(emitting(mock(FindPublisher.class, RETURNS_SELF), checkpoints));
+    when(metadata.insertMany(anyList()))
+        .thenReturn(Mono.just(InsertManyResult.acknowledged(Map.of())));
+    when(metadata.updateOne(any(Bson.class), any(Bson.class)))
+        .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+
+    when(mockSourceCollection.listIndexes())
+        .thenReturn(emitting(mock(ListIndexesPublisher.class), List.of()));
+    when(mockSourceCollection.find(any(Bson.class)))
+        .thenReturn(emitting(mock(FindPublisher.class, RETURNS_SELF), sourceDocuments));
+    when(mockDestCollection.deleteMany(any(Bson.class)))
+        .thenReturn(Mono.just(DeleteResult.acknowledged(1)));
+    Map<Integer, BsonValue> insertedIds = new HashMap<>();
+    for (int i = 0; i < sourceDocuments.size(); i++) {
+      insertedIds.put(i, new BsonInt32(i));
+    }
+    when(mockDestCollection.insertMany(anyList()))
+        .thenReturn(Mono.just(InsertManyResult.acknowledged(insertedIds)));
+    when(mockDestCollection.insertMany(anyList(), any(InsertManyOptions.class)))
+        .thenReturn(Mono.just(InsertManyResult.acknowledged(insertedIds)));
+    return metadata;
+  }
+
+  @Test
+  void resumedPartitionContinuesAfterLastIdAndClearsOnlyTheRest() {
+    IdRange range = new IdRange(0, 1, null, null);
+    BsonDocument checkpoint = CheckpointStore.toDocument("collection1", range)
+        .append("lastId", new BsonInt32(5))
+        .append("documents", new BsonInt64(5));
+    checkpointedCopy(
+        List.of(checkpoint), List.of(new Document("_id", 6), new Document("_id", 7)));
+
+    StepVerifier.create(service.migrateCollection("collection1"))
+        .assertNext(stats -> assertEquals(2, stats.getDocuments().get()))
+        .verifyComplete();
+
+    BsonDocument expected =
+        Filters.and(range.toFilter(), IdRange.after(new BsonInt32(5))).toBsonDocument();
+    ArgumentCaptor<Bson> deleted = ArgumentCaptor.forClass(Bson.class);
+    verify(mockDestCollection).deleteMany(deleted.capture());
+    assertEquals(expected, deleted.getValue().toBsonDocument());
+    ArgumentCaptor<Bson> read = ArgumentCaptor.forClass(Bson.class);
+    verify(mockSourceCollection).find(read.capture());
+    assertEquals(expected, read.getValue().toBsonDocument());
+  }
+
+  @Test
+  void firstCheckpointedRunKeepsExistingDestinationDocuments() {
+    MongoCollection<BsonDocument> metadata =
+        checkpointedCopy(List.of(), List.of(new Document("_id", 1)));
+
+    StepVerifier.create(service.migrateCollection("collection1"))
+        .assertNext(stats -> assertEquals(1, stats.getDocuments().get()))
+        .verifyComplete();
+
+    verify(metadata).insertMany(anyList());
+    verify(mockDestCollection, never()).deleteMany(any(Bson.class));
+  }
+
+  @Test
+  void filteredResumeUsesItsOwnCheckpointsAndClearsOnlyFilteredDocuments() {
+    CollectionProperties overrides = new CollectionProperties();
+    overrides.setFilter("{\"tenantId\": \"acme\"}");
+    CollectionOptions options = CollectionOptions.of(overrides);
+    IdRange range = new IdRange(0, 1, null, null);
+    BsonDocument checkpoint =
+        CheckpointStore.toDocument("collection1", options.filterHash(), range)
+            .append("lastId", new BsonInt32(5));
+    MongoCollection<BsonDocument> metadata =
+        checkpointedCopy(List.of(checkpoint), List.of(new Document("_id", 6)));
+
+    StepVerifier.create(
+            service.migrateCollection("collection1", TimeBudget.unlimited(), overrides))
+        .expectNextCount(1)
+        .verifyComplete();
+
+    ArgumentCaptor<Bson> loaded = ArgumentCaptor.forClass(Bson.class);
+    verify(metadata).find(loaded.capture());
+    assertTrue(
+        loaded
+            .getValue()
+            .toBsonDocument()
+            .toJson()
+            .contains("\"filterHash\": \"" + options.filterHash() + "\""));
+    ArgumentCaptor<Bson> deleted = ArgumentCaptor.forClass(Bson.class);
+    verify(mockDestCollection).deleteMany(deleted.capture());
+    assertEquals(
+        options
+            .filter(Filters.and(range.toFilter(), IdRange.after(new BsonInt32(5))))
+            .toBsonDocument(),
+        deleted.getValue().toBsonDocument());
+  }
+
+  @Test
+  void checkpointedFilterWithTransformsNeedsAWriteModeThatCanRunAgain() {
+    checkpointedCopy(List.of(), List.of());
+    CollectionProperties overrides = new CollectionProperties();
+    overrides.setFilter("{\"tenantId\": \"acme\"}");
+    overrides.setRename(Map.of("tenantId", "tenant"));
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> service.migrateCollection("collection1", TimeBudget.unlimited(), overrides));
+  }
+
+  @Test
+  void resumedTransformedFilteredCopyWritesAgainInsteadOfClearing() {
+    CollectionProperties overrides = new CollectionProperties();
+    overrides.setFilter("{\"tenantId\": \"acme\"}");
+    overrides.setRename(Map.of("tenantId", "tenant"));
+    CollectionOptions options = CollectionOptions.of(overrides);
+    IdRange range = new IdRange(0, 1, null, null);
+    BsonDocument checkpoint =
+        CheckpointStore.toDocument("collection1", options.filterHash(), range)
+            .append("lastId", new BsonInt32(5));
+    checkpointedCopy(
+        WriteMode.skipDuplicates, List.of(checkpoint), List.of(new Document("_id", 6)));
+
+    StepVerifier.create(
+            service.migrateCollection("collection1", TimeBudget.unlimited(), overrides))
+        .expectNextCount(1)
+        .verifyComplete();
+    verify(mockDestCollection, never()).deleteMany(any(Bson.class));
+    verify(mockDestCollection).insertMany(anyList(), any(InsertManyOptions.class));
+  }
+
+  @Test
+  void changeStreamsRejectCollectionsWithAFilter() {
+    DatabaseProperties properties = new DatabaseProperties();
+    properties.setChangeStreams(true);
+    service = new MongoMigrationService(
+        mockSourceClient, "sourceDb", mockDestClient, "destDb", properties);
+    CollectionProperties overrides = new CollectionProperties();
+    overrides.setFilter("{\"tenantId\": \"acme\"}");
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> service.migrateCollection("collection1", TimeBudget.unlimited(), overrides));
+  }
+
+  @Test
+  void budgetedImportNeedsAWriteModeThatCanRunAgain() {
+    StepVerifier.create(service.importCollection("collection1", TimeBudget.of(60_000, 0)))
+        .expectError(MongoMigrationServiceException.class)
+        .verify();
+    verify(mockDestClient, never()).getDatabase(anyString());
+  }
+
+  private static RawBsonDocument raw(int id) {
+    return new RawBsonDocument(
+        new BsonDocument("_id", new BsonInt32(id)), new BsonDocumentCodec());
+  }
+
+  private DatabaseProperties archiveProperties() {
+    DatabaseProperties properties = new DatabaseProperties();
+    properties.setArchiveDirectory(archive.toString());
+    // Every document finishes a segment.
+    properties.setArchiveSegmentBytes(1);
+    return properties;
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void stoppedExportContinuesAfterItsLastFinishedSegment() throws Exception {
+    service = new MongoMigrationService(
+        mockSourceClient, "sourceDb", mockDestClient, "destDb", archiveProperties());
+    Path directory = Files.createDirectories(archive.resolve("sourceDb").resolve("collection1"));
+    Files.writeString(directory.resolve("000000.bson.gz"), "kept");
+    Files.writeString(directory.resolve("000001.bson.gz"), "kept");
+    Files.writeString(directory.resolve("000002.bson.gz"), "cut short");
+    Path progress = archive.resolve("sourceDb").resolve("collection1.progress.json");
+    new ExportProgress(null, 2, new BsonInt32(2)).save(progress);
+
+    MongoCollection<RawBsonDocument> source = mock(MongoCollection.class);
+    when(mockSourceDatabase.getCollection("collection1", RawBsonDocument.class))
+        .thenReturn(source);
+    when(source.find(any(Bson.class)))
+        .thenReturn(emitting(mock(FindPublisher.class, RETURNS_SELF), List.of(raw(3), raw(4))));
+    when(mockSourceCollection.listIndexes())
+        .thenReturn(emitting(mock(ListIndexesPublisher.class), List.of()));
+
+    StepVerifier.create(service.exportCollection("collection1", TimeBudget.unlimited(), null))
+        .assertNext(stats -> assertEquals(2, stats.getDocuments().get()))
+        .verifyComplete();
+
+    ArgumentCaptor<Bson> read = ArgumentCaptor.forClass(Bson.class);
+    verify(source).find(read.capture());
+    assertEquals(
+        IdRange.after(new BsonInt32(2)).toBsonDocument(), read.getValue().toBsonDocument());
+    assertEquals("kept", Files.readString(directory.resolve("000001.bson.gz")));
+    try (ArchiveReader reader =
+        new ArchiveReader(
+            List.of(directory.resolve("000002.bson.gz"), directory.resolve("000003.bson.gz")),
+            1024)) {
+      assertEquals(raw(3), reader.next());
+      assertEquals(raw(4), reader.next());
+    }
+    assertTrue(Files.exists(archive.resolve("sourceDb").resolve("collection1.metadata.json")));
+    assertFalse(Files.exists(progress));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void stoppedImportContinuesWithTheFirstSegmentNotRecorded() throws Exception {
+    DatabaseProperties properties = archiveProperties();
+    properties.setWriteMode(WriteMode.skipDuplicates);
+    service = new MongoMigrationService(
+        mockSourceClient, "sourceDb", mockDestClient, "destDb", properties);
+    Path directory = Files.createDirectories(archive.resolve("sourceDb").resolve("collection1"));
+    try (ArchiveWriter writer = new ArchiveWriter(directory, 1, 1024, 1)) {
+      List.of(raw(0), raw(1), raw(2)).forEach(writer::write);
+    }
+    Files.writeString(
+        archive.resolve("sourceDb").resolve("collection1.metadata.json"),
+        "{\"indexes\": [], \"exportedAt\": {\"$numberLong\": \"42\"}}");
+
+    MongoCollection<BsonDocument> metadata = mock(MongoCollection.class);
+    when(mockDestDatabase.getCollection(
+            MongoMigrationService.MIGRATION_METADATA_COLLECTION, BsonDocument.class))
+        .thenReturn(metadata);
+    FindPublisher<BsonDocument> saved = mock(FindPublisher.class);
+    when(metadata.find(any(Bson.class))).thenReturn(saved);
+    when(saved.first())
+        .thenReturn(
+            Mono.just(
+                new BsonDocument("exportedAt", new BsonInt64(42))
+                    .append("segments", new BsonInt32(2))));
+    when(metadata.withWriteConcern(any())).thenReturn(metadata);
+    when(metadata.updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class)))
+        .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+    MongoCollection<RawBsonDocument> destination = mock(MongoCollection.class);
+    when(mockDestDatabase.getCollection("collection1", RawBsonDocument.class))
+        .thenReturn(destination);
+    when(destination.insertMany(anyList(), any(InsertManyOptions.class)))
+        .thenReturn(Mono.just(InsertManyResult.acknowledged(Map.of(0, new BsonInt32(2)))));
+
+    StepVerifier.create(service.importCollection("collection1", TimeBudget.of(60_000, 0)))
+        .assertNext(stats -> assertEquals(1, stats.getDocuments().get()))
+        .verifyComplete();
+
+    ArgumentCaptor<List<RawBsonDocument>> written = ArgumentCaptor.forClass(List.class);
+    verify(destination).insertMany(written.capture(), any(InsertManyOptions.class));
+    assertEquals(List.of(raw(2)), written.getValue());
+    ArgumentCaptor<Bson> recorded = ArgumentCaptor.forClass(Bson.class);
+    verify(metadata).updateOne(any(Bson.class), recorded.capture(), any(UpdateOptions.class));
+    assertTrue(recorded.getValue().toBsonDocument().toJson().contains("\"segments\": 3"));
+  }
 }
@@ -0,0 +1,178 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.mongodb.reactivestreams.client.AggregatePublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import dist.migration.configs.CollectionProperties;
+import dist.migration.configs.DatabaseProperties;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ServerSideCopyTest {
+
+  @Test
+  void replicaSetMembersOfTheSameSetAreOneDeployment() {
+    BsonDocument source =
+        BsonDocument.parse("{\"setName\": \"rs0\", \"hosts\": [\"a:27017\", \"b:27017\"]}");
+    BsonDocument destination =
+        BsonDocument.parse("{\"setName\": \"rs0\", \"hosts\": [\"b:27017\", \"c:27017\"]}");
+    BsonDocument other =
+        BsonDocument.parse("{\"setName\": \"rs0\", \"hosts\": [\"x:27017\"]}");
+
+    assertTrue(ServerSideCopy.sameDeployment(source, destination));
+    assertFalse(ServerSideCopy.sameDeployment(source, other));
+  }
+
+  @Test
+  void standalonesCompareProcessIds() {
+    BsonDocument source =
+        BsonDocument.parse(
+            "{\"topologyVersion\": {\"processId\": {\"$oid\": \"65a000000000000000000001\"}}}");
+    BsonDocument restarted =
+        BsonDocument.parse(
+            "{\"topologyVersion\": {\"processId\": {\"$oid\": \"65a000000000000000000002\"}}}");
+
+    assertTrue(ServerSideCopy.sameDeployment(source, source.clone()));
+    assertFalse(ServerSideCopy.sameDeployment(source, restarted));
+    assertFalse(ServerSideCopy.sameDeployment(new BsonDocument(), new BsonDocument()));
+  }
+
+  @Test
+  void withoutOptionsThePipelineOnlyMerges() {
+    List<Bson> pipeline = ServerSideCopy.pipeline("dest", "orders", CollectionOptions.NONE);
+
+    assertEquals(1, pipeline.size());
+    BsonDocument merge = pipeline.get(0).toBsonDocument().getDocument("$merge");
+    assertEquals(
+        BsonDocument.parse("{\"db\": \"dest\", \"coll\": \"orders\"}"),
+        merge.getDocument("into"));
+    assertEquals("replace", merge.getString("whenMatched").getValue());
+  }
+
+  @Test
+  void optionsBecomePipelineStagesInOrder() {
+    CollectionProperties properties = new CollectionProperties();
+    properties.setFilter("{\"tenantId\": \"acme\"}");
+    properties.setDrop(List.of("legacy"));
+    properties.setRename(Map.of("name", "fullName"));
+    properties.setSet(Map.of("source", "crm"));
+
+    List<String> stages =
+        ServerSideCopy.pipeline("dest", "orders", CollectionOptions.of(properties)).stream()
+            .map(stage -> stage.toBsonDocument().getFirstKey())
+            .collect(Collectors.toList());
+
+    assertEquals(List.of("$match", "$unset", "$set", "$unset", "$set", "$merge"), stages);
+  }
+
+  @Test
+  void refusesToMergeACollectionIntoItself() {
+    MongoDatabase database = mock(MongoDatabase.class);
+    when(database.getName()).thenReturn("shop");
+    ServerSideCopy copy =
+        new ServerSideCopy(database, database, database, new DatabaseProperties());
+
+    StepVerifier.create(copy.copy("orders", CollectionOptions.NONE, new MigrationStats()))
+        .expectError(IllegalArgumentException.class)
+        .verify();
+    verify(database, never()).getCollection(anyString());
+  }
+
+  private static BsonDocument inProgress(int... opids) {
+    BsonArray operations = new BsonArray();
+    for (int opid : opids) {
+      operations.add(new BsonDocument("opid", new BsonInt32(opid)));
+    }
+    return new BsonDocument("inprog", operations);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static AggregatePublisher<Document> merging(
+      MongoDatabase source, Publisher<Void> merge, long sourceCount) {
+    MongoCollection<Document> collection = mock(MongoCollection.class);
+    AggregatePublisher<Document> aggregate = mock(AggregatePublisher.class);
+    when(source.getCollection("orders")).thenReturn(collection);
+    when(collection.aggregate(anyList())).thenReturn(aggregate);
+    when(aggregate.allowDiskUse(true)).thenReturn(aggregate);
+    when(aggregate.comment(anyString())).thenReturn(aggregate);
+    when(aggregate.toCollection()).thenReturn(merge);
+    when(collection.countDocuments(any(Bson.class))).thenReturn(Mono.just(sourceCount));
+    return aggregate;
+  }
+
+  private static MongoDatabase database(String name) {
+    MongoDatabase database = mock(MongoDatabase.class);
+    when(database.getName()).thenReturn(name);
+    return database;
+  }
+
+  @Test
+  void completedMergeReportsTheSourceDocumentsItMerged() {
+    MongoDatabase source = database("shop");
+    MongoDatabase admin = database("admin");
+    MongoDatabase destination = database("archive");
+    when(admin.runCommand(any(Bson.class), eq(BsonDocument.class)))
+        .thenReturn(Mono.just(inProgress()));
+    AggregatePublisher<Document> aggregate = merging(source, Mono.empty(), 3);
+    MigrationStats stats = new MigrationStats();
+
+    StepVerifier.create(
+            new ServerSideCopy(source, admin, destination, new DatabaseProperties())
+                .copy("orders", CollectionOptions.NONE, stats))
+        .expectNext(3L)
+        .verifyComplete();
+    verify(aggregate).comment("migration to archive.orders");
+    assertTrue(stats.isCompleted());
+  }
+
+  @Test
+  void mergeStillRunningFromAnEarlierRunIsNotStartedAgain() {
+    MongoDatabase source = database("shop");
+    MongoDatabase admin = database("admin");
+    when(admin.runCommand(any(Bson.class), eq(BsonDocument.class)))
+        .thenReturn(Mono.just(inProgress(7)));
+    MigrationStats stats = new MigrationStats();
+
+    StepVerifier.create(
+            new ServerSideCopy(source, admin, database("archive"), new DatabaseProperties())
+                .copy("orders", CollectionOptions.NONE, stats))
+        .verifyComplete();
+    verify(source, never()).getCollection(anyString());
+    assertFalse(stats.isCompleted());
+  }
+
+  @Test
+  void exhaustedBudgetKillsTheMergeAndReportsNothing() {
+    MongoDatabase source = database("shop");
+    MongoDatabase admin = database("admin");
+    when(admin.runCommand(any(Bson.class), eq(BsonDocument.class)))
+        .thenReturn(Mono.just(inProgress()), Mono.just(inProgress(7)));
+    when(admin.runCommand(any(Bson.class))).thenReturn(Mono.just(new Document("ok", 1)));
+    merging(source, Mono.never(), 3);
+    MigrationStats stats = new MigrationStats(TimeBudget.of(100, 0), null);
+
+    StepVerifier.create(
+            new ServerSideCopy(source, admin, database("archive"), new DatabaseProperties())
+                .copy("orders", CollectionOptions.NONE, stats))
+        .verifyComplete();
+    verify(admin).runCommand(BsonDocument.parse("{\"killOp\": 1, \"op\": 7}"));
+    assertFalse(stats.isCompleted());
+  }
+}
@@ -0,0 +1,70 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import dist.migration.configs.DatabaseProperties;
+import org.junit.jupiter.api.Test;
+
+class SourceRateLimiterTest {
+
+  private static final long SECOND = 1_000_000_000L;
+
+  @Test
+  void spacesBatchesByDocumentRate() {
+    SourceRateLimiter limiter = new SourceRateLimiter(1000, 0, 0);
+
+    assertEquals(0, limiter.reserve(500, 0, 0));
+    assertEquals(SECOND / 2, limiter.reserve(500, 0, 0));
+    assertEquals(SECOND / 2, limiter.reserve(100, 0, SECOND / 2));
+  }
+
+  @Test
+  void slowerOfBothRatesWins() {
+    SourceRateLimiter limiter = new SourceRateLimiter(1000, 1024 * 1024, 0);
+
+    limiter.reserve(10, 2 * 1024 * 1024, 0);
+
+    assertEquals(2 * SECOND, limiter.reserve(10, 0, 0));
+  }
+
+  @Test
+  void idleTimeIsNotBankedAsBurst() {
+    SourceRateLimiter limiter = new SourceRateLimiter(1000, 0, 0);
+
+    limiter.reserve(1000, 0, 0);
+
+    assertEquals(0, limiter.reserve(1000, 0, 10 * SECOND));
+    assertEquals(SECOND, limiter.reserve(1000, 0, 10 * SECOND));
+  }
+
+  @Test
+  void halvesRateAboveLatencyThresholdAndRecoversAdditively() {
+    SourceRateLimiter limiter = new SourceRateLimiter(1000, 0, 50);
+
+    limiter.recordLatency(80);
+    limiter.recordLatency(90);
+    assertEquals(0.25, limiter.getRateFactor(), 1e-9);
+
+    limiter.recordLatency(10);
+    assertEquals(0.25 + SourceRateLimiter.RATE_FACTOR_STEP, limiter.getRateFactor(), 1e-9);
+
+    limiter.reserve(300, 0, 0);
+    assertEquals(SECOND, limiter.reserve(1, 0, 0), 1_000);
+  }
+
+  @Test
+  void neverDropsBelowMinimumRate() {
+    SourceRateLimiter limiter = new SourceRateLimiter(1000, 0, 50);
+
+    for (int i = 0; i < 20; i++) {
+      limiter.recordLatency(500);
+    }
+
+    assertEquals(SourceRateLimiter.MIN_RATE_FACTOR, limiter.getRateFactor(), 1e-9);
+  }
+
+  @Test
+  void unconfiguredLimiterIsUnlimited() {
+    assertTrue(SourceRateLimiter.of(new DatabaseProperties()).isUnlimited());
+  }
+}
@@ -0,0 +1,196 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class SpillBufferTest {
+
+  @TempDir Path directory;
+
+  private static Batch<RawBsonDocument> batch(int id) {
+    BsonDocument document = new BsonDocument("_id", new BsonInt32(id));
+    return new Batch<>(List.of(new RawBsonDocument(document, new BsonDocumentCodec())), 1_000);
+  }
+
+  private static <T> Flux<Batch<T>> slowWriter(Flux<Batch<T>> batches) {
+    return batches.concatMap(batch -> Mono.delay(Duration.ofMillis(2)).thenReturn(batch), 1);
+  }
+
+  private void awaitEmptyDirectory() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      try (Stream<Path> files = Files.list(directory)) {
+        if (files.findAny().isEmpty()) {
+          return;
+        }
+      }
+      Thread.sleep(50);
+    }
+    fail("Spill files were not removed");
+  }
+
+  @Test
+  void spilledBatchesReachTheWriterInOrder() throws Exception {
+    SpillBuffer<RawBsonDocument> buffer =
+        new SpillBuffer<>(DocumentFormat.RAW, directory.toString(), 3_000, 2_000, Long.MAX_VALUE);
+
+    Flux<Integer> ids =
+        slowWriter(buffer.buffer(Flux.range(0, 50).map(SpillBufferTest::batch)))
+            .map(batch -> batch.getDocuments().get(0).getInt32("_id").getValue());
+
+    StepVerifier.create(ids.collectList())
+        .assertNext(
+            list ->
+                assertEquals(IntStream.range(0, 50).boxed().collect(Collectors.toList()), list))
+        .verifyComplete();
+    awaitEmptyDirectory();
+  }
+
+  @Test
+  void spilledBatchesGiveTheirBytesBackUntilTheyAreReadAgain() throws Exception {
+    MemoryGovernor governor = MemoryGovernor.unlimited();
+    SpillBuffer<RawBsonDocument> buffer =
+        new SpillBuffer<>(
+            DocumentFormat.RAW,
+            directory.toString(),
+            3_000,
+            2_000,
+            new SpillDiskBudget(Long.MAX_VALUE),
+            governor);
+    Flux<Batch<RawBsonDocument>> batches =
+        Flux.range(0, 50)
+            .map(SpillBufferTest::batch)
+            .concatMap(batch -> governor.acquire(batch.getBytes()).thenReturn(batch), 1);
+
+    StepVerifier.create(
+            slowWriter(buffer.buffer(batches))
+                .doOnNext(batch -> governor.release(batch.getBytes())))
+        .expectNextCount(50)
+        .verifyComplete();
+    // The memory tier, the batches between the stages and the writer's, not the whole source.
+    assertTrue(governor.getPeakBytes() <= 8_000, "peak " + governor.getPeakBytes());
+    assertEquals(0, governor.getInFlightBytes());
+    awaitEmptyDirectory();
+  }
+
+  @Test
+  void decodedDocumentsSurviveTheDisk() {
+    SpillBuffer<Document> buffer =
+        new SpillBuffer<>(DocumentFormat.DOCUMENT, directory.toString(), 1, 1, Long.MAX_VALUE);
+    Flux<Batch<Document>> batches =
+        Flux.range(0, 10)
+            .map(i -> new Batch<>(List.of(new Document("_id", i).append("name", "n" + i)), 1));
+
+    StepVerifier.create(slowWriter(buffer.buffer(batches)).map(Batch::getDocuments))
+        .expectNext(List.of(new Document("_id", 0).append("name", "n0")))
+        .expectNextCount(8)
+        .expectNext(List.of(new Document("_id", 9).append("name", "n9")))
+        .verifyComplete();
+  }
+
+  @Test
+  void readsPauseWhileTheDiskIsFull() {
+    SpillBuffer<RawBsonDocument> buffer =
+        new SpillBuffer<>(DocumentFormat.RAW, directory.toString(), 1_000, 1_000, 1);
+    int[] maxAhead = {0};
+    int[] produced = {0};
+    int[] consumed = {0};
+
+    Flux<Batch<RawBsonDocument>> batches =
+        Flux.range(0, 30).doOnNext(i -> produced[0]++).map(SpillBufferTest::batch);
+
+    StepVerifier.create(
+            slowWriter(buffer.buffer(batches))
+                .doOnNext(
+                    batch -> {
+                      consumed[0]++;
+                      maxAhead[0] = Math.max(maxAhead[0], produced[0] - consumed[0]);
+                    }))
+        .expectNextCount(30)
+        .verifyComplete();
+    // A batch in memory, one on disk and a couple queued in the writer, not the whole source.
+    assertTrue(maxAhead[0] <= 5, "read ahead by " + maxAhead[0]);
+  }
+
+  private SpillBuffer<RawBsonDocument> sharing(SpillDiskBudget disk) {
+    return new SpillBuffer<>(
+        DocumentFormat.RAW, directory.toString(), 1_000, 1_000, disk, MemoryGovernor.unlimited());
+  }
+
+  // A writer that never asks for anything leaves the buffer's spilled batch on disk.
+  private Disposable fillDisk(SpillDiskBudget disk) throws Exception {
+    Disposable stalled =
+        sharing(disk)
+            .buffer(Flux.range(0, 30).map(SpillBufferTest::batch))
+            .subscribe(
+                new BaseSubscriber<>() {
+                  @Override
+                  protected void hookOnSubscribe(Subscription subscription) {}
+                });
+    for (int i = 0; i < 100 && disk.getUsedBytes() == 0; i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(disk.getUsedBytes() > 0);
+    return stalled;
+  }
+
+  @Test
+  void cursorsThatDoNotSpillKeepReadingWhileTheSharedDiskIsFull() throws Exception {
+    SpillDiskBudget disk = new SpillDiskBudget(1);
+    Disposable stalled = fillDisk(disk);
+    SpillBuffer<RawBsonDocument> other = sharing(disk);
+
+    StepVerifier.create(other.buffer(Flux.range(0, 30).map(SpillBufferTest::batch)))
+        .expectNextCount(30)
+        .verifyComplete();
+    stalled.dispose();
+  }
+
+  @Test
+  void spillingCursorsWaitForSharedDiskSpace() throws Exception {
+    SpillDiskBudget disk = new SpillDiskBudget(1);
+    Disposable stalled = fillDisk(disk);
+    SpillBuffer<RawBsonDocument> other = sharing(disk);
+    AtomicInteger produced = new AtomicInteger();
+
+    StepVerifier.create(
+            other.buffer(
+                Flux.range(0, 30)
+                    .doOnNext(i -> produced.incrementAndGet())
+                    .map(SpillBufferTest::batch)),
+            1)
+        .expectNextCount(1)
+        .expectNoEvent(Duration.ofMillis(200))
+        // One batch delivered and one filling the memory tier; the next would need the disk.
+        .then(() -> assertEquals(2, produced.get()))
+        .then(stalled::dispose)
+        .thenRequest(Long.MAX_VALUE)
+        .expectNextCount(29)
+        .verifyComplete();
+    // The stalled buffer hands its bytes back once its clean-up has run.
+    for (int i = 0; i < 100 && disk.getUsedBytes() > 0; i++) {
+      Thread.sleep(50);
+    }
+    assertEquals(0, disk.getUsedBytes());
+  }
+}
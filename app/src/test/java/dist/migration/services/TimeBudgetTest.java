@@ -0,0 +1,51 @@
+package dist.migration.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+class TimeBudgetTest {
+
+  @Test
+  void unlimitedBudgetNeverExpires() {
+    TimeBudget budget = TimeBudget.unlimited();
+
+    assertTrue(budget.isUnlimited());
+    assertFalse(budget.isExhausted());
+    assertEquals(Long.MAX_VALUE, budget.remainingMillis());
+    StepVerifier.create(budget.expiry())
+        .expectSubscription()
+        .expectNoEvent(Duration.ofMillis(50))
+        .thenCancel()
+        .verify();
+  }
+
+  @Test
+  void reserveIsTakenOffTheRemainingTime() {
+    TimeBudget budget = TimeBudget.of(60_000, 10_000);
+
+    assertFalse(budget.isUnlimited());
+    assertTrue(budget.remainingMillis() <= 50_000);
+    assertTrue(budget.remainingMillis() > 40_000);
+  }
+
+  @Test
+  void reserveLargerThanRemainingTimeLeavesNothing() {
+    TimeBudget budget = TimeBudget.of(5_000, 10_000);
+
+    assertTrue(budget.isExhausted());
+    StepVerifier.create(budget.expiry()).expectNextCount(1).verifyComplete();
+  }
+
+  @Test
+  void expiryEmitsOnceTheDeadlinePasses() {
+    StepVerifier.withVirtualTime(() -> TimeBudget.of(10_000, 0).expiry())
+        .expectSubscription()
+        .expectNoEvent(Duration.ofMillis(500))
+        .thenAwait(Duration.ofMillis(10_000))
+        .expectNextCount(1)
+        .verifyComplete();
+  }
+}
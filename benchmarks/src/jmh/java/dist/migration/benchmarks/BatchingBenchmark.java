@@ -0,0 +1,50 @@
+package dist.migration.benchmarks;
+
+import dist.migration.services.ByteBudgetBatcher;
+import dist.migration.services.DocumentFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.RawBsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import reactor.core.publisher.Flux;
+
+/** Grouping a document stream into insert batches: fixed-count buffers versus byte budgets. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BatchingBenchmark {
+
+  private static final int DOCUMENTS = 10_000;
+
+  @Param({"1024", "10240"})
+  public int dataSize;
+
+  private List<RawBsonDocument> raw;
+  private ByteBudgetBatcher batcher;
+
+  @Setup
+  public void setUp() {
+    raw = SyntheticDocuments.raw(SyntheticDocuments.documents(DOCUMENTS, dataSize));
+    batcher = new ByteBudgetBatcher(16L * 1024 * 1024, 400);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCUMENTS)
+  public Long fixedCountBuffer() {
+    return Flux.fromIterable(raw).buffer(400).count().block();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCUMENTS)
+  public Long byteBudgetBatcher() {
+    return batcher.batch(Flux.fromIterable(raw), DocumentFormat.RAW::sizeOf).count().block();
+  }
+}
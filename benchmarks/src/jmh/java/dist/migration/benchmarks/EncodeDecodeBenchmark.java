@@ -0,0 +1,72 @@
+package dist.migration.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-document work on the read and write side of the copy: decoding wire bytes into {@link
+ * Document} and encoding it again, versus keeping {@link RawBsonDocument} bytes as they are.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodeDecodeBenchmark {
+
+  @Param({"1024", "10240"})
+  public int dataSize;
+
+  private final DocumentCodec documentCodec = new DocumentCodec();
+  private final RawBsonDocumentCodec rawCodec = new RawBsonDocumentCodec();
+  private Document document;
+  private byte[] bytes;
+
+  @Setup
+  public void setUp() {
+    List<Document> documents = SyntheticDocuments.documents(1, dataSize);
+    document = documents.get(0);
+    RawBsonDocument raw = SyntheticDocuments.raw(documents).get(0);
+    ByteBuffer buffer = raw.getByteBuffer().asNIO();
+    bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+  }
+
+  @Benchmark
+  public Document decodeDocument() {
+    return documentCodec.decode(
+        new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+  }
+
+  @Benchmark
+  public RawBsonDocument encodeDocument() {
+    return new RawBsonDocument(document, documentCodec);
+  }
+
+  @Benchmark
+  public RawBsonDocument documentRoundTrip() {
+    Document decoded =
+        documentCodec.decode(
+            new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+    return new RawBsonDocument(decoded, documentCodec);
+  }
+
+  @Benchmark
+  public RawBsonDocument rawPassThrough() {
+    return rawCodec.decode(
+        new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+  }
+}
@@ -0,0 +1,47 @@
+package dist.migration.benchmarks;
+
+import com.google.gson.Gson;
+import dist.migration.dtos.EventType;
+import dist.migration.dtos.ResponseDto;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** The handler's response path; sharedGson is the baseline without per-call Gson construction. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseSerializationBenchmark {
+
+  private final Gson gson = new Gson();
+  private ResponseDto response;
+
+  @Setup
+  public void setUp() {
+    response =
+        ResponseDto.builder()
+            .dataBaseName("db_name1")
+            .collectionName("yourCollectionName")
+            .eventType(EventType.executeMigration)
+            .result("Successful")
+            .completed(true)
+            .documentsMigrated(300_000L)
+            .bytesMigrated(3_145_728_000L)
+            .build();
+  }
+
+  @Benchmark
+  public String responseToString() {
+    return response.toString();
+  }
+
+  @Benchmark
+  public String sharedGson() {
+    return gson.toJson(response);
+  }
+}
@@ -0,0 +1,57 @@
+package dist.migration.benchmarks;
+
+import dist.migration.services.DocumentFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Cost of measuring one batch of 400 documents, as the copy pipeline does for every batch. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SizeAccountingBenchmark {
+
+  private static final int BATCH = 400;
+
+  @Param({"1024", "10240"})
+  public int dataSize;
+
+  private List<Document> documents;
+  private List<RawBsonDocument> raw;
+
+  @Setup
+  public void setUp() {
+    documents = SyntheticDocuments.documents(BATCH, dataSize);
+    raw = SyntheticDocuments.raw(documents);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public long documentJsonSize() {
+    long bytes = 0;
+    for (Document document : documents) {
+      bytes += DocumentFormat.DOCUMENT.sizeOf(document);
+    }
+    return bytes;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public long rawBsonSize() {
+    long bytes = 0;
+    for (RawBsonDocument document : raw) {
+      bytes += DocumentFormat.RAW.sizeOf(document);
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,175 @@
+package dist.migration.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.mongodb.reactivestreams.client.MongoClient;
+import dist.migration.dtos.EventType;
+import dist.migration.dtos.InputDto;
+import dist.migration.factories.MongoClientFactory;
+import dist.migration.handlers.MongoMigrationHandler;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+/**
+ * Cold-start benchmark for the local podman setup. Every run is a fresh JVM that loads the handler
+ * and migrates one collection of db_name1 for a few seconds, reporting how long init took and how
+ * long the first invocation needed to write its first batch, with and without priming.
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:startupBenchmark -Pcollection=yourCollectionName}.
+ */
+public class StartupBenchmark {
+  private static final Logger log = LoggerFactory.getLogger(StartupBenchmark.class);
+  private static final String DATABASE = "db_name1";
+  private static final String RESULT_PREFIX = "STARTUP_PROBE ";
+  private static final int ROUNDS = 3;
+  // Matches the default timeBudgetReserveMillis, leaving a short copy window per probe.
+  private static final int PROBE_REMAINING_MILLIS = 60_000 + 5_000;
+
+  public static void main(String[] args) throws Exception {
+    String collection = args.length > 0 ? args[0] : "yourCollectionName";
+    if (args.length > 1 && args[1].equals("probe")) {
+      probe(collection);
+      return;
+    }
+    List<String> results = new ArrayList<>();
+    for (int round = 0; round < ROUNDS; round++) {
+      for (boolean priming : new boolean[] {true, false}) {
+        dropDestination();
+        results.add("priming=" + priming + " " + runProbe(collection, priming));
+      }
+    }
+    MongoClientFactory.closeAll();
+    results.forEach(result -> log.info("{}", result));
+  }
+
+  private static void probe(String collection) throws Exception {
+    long initStart = System.nanoTime();
+    // First use of the handler class runs its static initializer, including priming.
+    MongoMigrationHandler handler = new MongoMigrationHandler();
+    long initMillis = (System.nanoTime() - initStart) / 1_000_000;
+
+    InputDto input = new InputDto();
+    input.setDataBaseName(DATABASE);
+    input.setEventType(EventType.executeMigration);
+    input.setCollectionName(collection);
+    input.setEnv("local");
+    long invokeStart = System.nanoTime();
+    String response = handler.handleRequest(input, new ProbeContext());
+    long invokeMillis = (System.nanoTime() - invokeStart) / 1_000_000;
+
+    JsonElement firstBatch = JsonParser.parseString(response)
+        .getAsJsonObject()
+        .get("firstBatchMillis");
+    // The parent process reads the result from the probe's stdout.
+    System.out.println(RESULT_PREFIX
+        + "jvmUptimeAtInvoke=" + ManagementFactory.getRuntimeMXBean().getUptime()
+        + "ms init=" + initMillis
+        + "ms firstBatch=" + (firstBatch == null ? "none" : firstBatch.getAsLong() + "ms")
+        + " invocation=" + invokeMillis + "ms");
+    MongoClientFactory.closeAll();
+  }
+
+  private static String runProbe(String collection, boolean priming) throws Exception {
+    Process process = new ProcessBuilder(
+            ProcessHandle.current().info().command().orElse("java"),
+            "-Dmigration.priming=" + priming,
+            "-cp",
+            System.getProperty("java.class.path"),
+            StartupBenchmark.class.getName(),
+            collection,
+            "probe")
+        .redirectErrorStream(true)
+        .start();
+    String result = "no result";
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(RESULT_PREFIX)) {
+          result = line.substring(RESULT_PREFIX.length());
+        }
+      }
+    }
+    process.waitFor(5, TimeUnit.MINUTES);
+    return result;
+  }
+
+  // Each probe starts from an empty destination so no run resumes from another's checkpoints.
+  private static void dropDestination() {
+    MongoClient client = MongoClientFactory.createClient("localhost:27018", "", "");
+    try {
+      Mono.from(client.getDatabase(DATABASE).drop()).block();
+    } finally {
+      client.close();
+    }
+  }
+
+  private static class ProbeContext implements Context {
+    @Override
+    public String getAwsRequestId() {
+      return "STARTUP_PROBE";
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+      return null;
+    }
+
+    @Override
+    public String getFunctionName() {
+      return "STARTUP_PROBE";
+    }
+
+    @Override
+    public String getFunctionVersion() {
+      return null;
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+      return null;
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+      return null;
+    }
+
+    @Override
+    public String getLogGroupName() {
+      return null;
+    }
+
+    @Override
+    public String getLogStreamName() {
+      return null;
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+      return null;
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+      return (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+      return PROBE_REMAINING_MILLIS;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package dist.migration.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+
+/** Documents shaped like the ones scripts/python/populate.py inserts, plus a nested variant. */
+final class SyntheticDocuments {
+
+  enum Shape {
+    // data, name and timeStamp, exactly as populate.py writes them
+    flat,
+    // the same payload spread over a sub-document and an array, for decode-heavy shapes
+    nested
+  }
+
+  private static final String ALPHABET =
+      "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+  private SyntheticDocuments() {}
+
+  static List<Document> documents(int count, int dataSize) {
+    return documents(count, dataSize, Shape.flat, new Random(42));
+  }
+
+  static List<Document> documents(int count, int dataSize, Shape shape, Random random) {
+    long timeStamp = 1_700_000_000_000L;
+    List<Document> documents = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Document document =
+          new Document("_id", new ObjectId())
+              .append("name", "Name_" + (i % 500))
+              .append("timeStamp", timeStamp + i);
+      if (shape == Shape.nested) {
+        List<Document> items = new ArrayList<>();
+        for (int item = 0; item < 8; item++) {
+          items.add(
+              new Document("sku", item)
+                  .append("quantity", random.nextInt(100))
+                  .append("note", randomString(random, dataSize / 16)));
+        }
+        document.append(
+            "detail",
+            new Document("data", randomString(random, dataSize / 2))
+                .append("items", items)
+                .append("score", random.nextDouble()));
+      } else {
+        document.append("data", randomString(random, dataSize));
+      }
+      documents.add(document);
+    }
+    return documents;
+  }
+
+  static List<RawBsonDocument> raw(List<Document> documents) {
+    DocumentCodec codec = new DocumentCodec();
+    List<RawBsonDocument> raw = new ArrayList<>(documents.size());
+    for (Document document : documents) {
+      raw.add(new RawBsonDocument(document, codec));
+    }
+    return raw;
+  }
+
+  private static String randomString(Random random, int size) {
+    char[] chars = new char[size];
+    for (int i = 0; i < size; i++) {
+      chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+    }
+    return new String(chars);
+  }
+}
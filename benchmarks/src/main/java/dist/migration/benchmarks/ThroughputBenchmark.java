@@ -0,0 +1,213 @@
+package dist.migration.benchmarks;
+
+import com.google.gson.GsonBuilder;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import dist.migration.configs.DatabaseProperties;
+import dist.migration.factories.MongoClientFactory;
+import dist.migration.handlers.MigrationExecutor;
+import dist.migration.services.MigrationStats;
+import dist.migration.services.MongoMigrationService;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * End-to-end throughput runner for the local podman setup (scripts/podman/start.sh). It loads
+ * synthetic collections into the source mongod, then migrates them once for every combination of
+ * the settings below and writes docs/sec, MB/sec and batch write latency percentiles as JSON.
+ *
+ * <p>Settings are system properties, lists are comma separated:
+ *
+ * <ul>
+ *   <li>throughput.documents - documents per collection (20000)
+ *   <li>throughput.dataSize - size of the data payload in bytes (10240)
+ *   <li>throughput.shape - flat or nested (flat)
+ *   <li>throughput.collections - collection counts (1,4)
+ *   <li>throughput.batchSizes - maxBatchDocuments values (400,1000)
+ *   <li>throughput.partitions - partitions per collection (1,4)
+ *   <li>throughput.collectionConcurrency - collections copied at once (2)
+ *   <li>throughput.rawBson - rawBsonPassThrough (true)
+ *   <li>throughput.report - output file (build/throughput-report.json)
+ * </ul>
+ */
+public class ThroughputBenchmark {
+  private static final Logger log = LoggerFactory.getLogger(ThroughputBenchmark.class);
+  private static final String DATABASE = "throughput_bench";
+  private static final String COLLECTION_PREFIX = "bench_";
+  private static final int INSERT_BATCH = 1000;
+
+  public static void main(String[] args) throws Exception {
+    String sourceUrl = System.getProperty("throughput.source", "localhost:27017");
+    String destinationUrl = System.getProperty("throughput.destination", "localhost:27018");
+    int documents = Integer.getInteger("throughput.documents", 20_000);
+    int dataSize = Integer.getInteger("throughput.dataSize", 10_240);
+    SyntheticDocuments.Shape shape =
+        SyntheticDocuments.Shape.valueOf(System.getProperty("throughput.shape", "flat"));
+    List<Integer> collectionCounts = ints("throughput.collections", "1,4");
+    List<Integer> batchSizes = ints("throughput.batchSizes", "400,1000");
+    List<Integer> partitions = ints("throughput.partitions", "1,4");
+    List<Integer> collectionConcurrency = ints("throughput.collectionConcurrency", "2");
+    boolean rawBson = Boolean.parseBoolean(System.getProperty("throughput.rawBson", "true"));
+    Path report = Path.of(System.getProperty("throughput.report", "build/throughput-report.json"));
+
+    MongoClient source = MongoClientFactory.createClient(sourceUrl, "", "");
+    MongoClient destination = MongoClientFactory.createClient(destinationUrl, "", "");
+    List<Result> results = new ArrayList<>();
+    try {
+      generate(source.getDatabase(DATABASE), collectionCounts, documents, dataSize, shape);
+      for (int collections : collectionCounts) {
+        for (int batchSize : batchSizes) {
+          for (int partitionCount : partitions) {
+            for (int concurrency : collectionConcurrency) {
+              DatabaseProperties properties = new DatabaseProperties();
+              properties.setMaxBatchDocuments(batchSize);
+              properties.setPartitions(partitionCount);
+              properties.setCollectionConcurrency(concurrency);
+              properties.setRawBsonPassThrough(rawBson);
+              Mono.from(destination.getDatabase(DATABASE).drop()).block();
+              Result result = run(source, destination, properties, collections);
+              log.info("{}", result);
+              results.add(result);
+            }
+          }
+        }
+      }
+    } finally {
+      source.close();
+      destination.close();
+    }
+
+    if (report.getParent() != null) {
+      Files.createDirectories(report.getParent());
+    }
+    Files.writeString(report, new GsonBuilder().setPrettyPrinting().create().toJson(results));
+    log.info("Wrote {} results to {}", results.size(), report.toAbsolutePath());
+  }
+
+  private static Result run(
+      MongoClient source, MongoClient destination, DatabaseProperties properties, int collections) {
+    // The service does not own its clients, so the same pair is reused for every run.
+    MongoMigrationService service =
+        new MongoMigrationService(source, DATABASE, destination, DATABASE, properties);
+    long start = System.nanoTime();
+    MigrationStats stats = new MigrationExecutor(service).runDatabase(collectionNames(collections));
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    Result result = new Result();
+    result.collections = collections;
+    result.maxBatchDocuments = properties.getMaxBatchDocuments();
+    result.partitions = properties.getPartitions();
+    result.collectionConcurrency = properties.getCollectionConcurrency();
+    result.rawBsonPassThrough = properties.isRawBsonPassThrough();
+    result.documents = stats.getDocuments().get();
+    result.bytes = stats.getBytes().get();
+    result.seconds = seconds;
+    result.docsPerSecond = result.documents / seconds;
+    result.megabytesPerSecond = result.bytes / (1024.0 * 1024.0) / seconds;
+    result.batches = stats.getBatchWriteMicros().getCount();
+    result.batchLatencyP50Millis = stats.getBatchWriteMicros().percentile(50) / 1000.0;
+    result.batchLatencyP99Millis = stats.getBatchWriteMicros().percentile(99) / 1000.0;
+    return result;
+  }
+
+  private static void generate(
+      MongoDatabase database,
+      List<Integer> collectionCounts,
+      int documents,
+      int dataSize,
+      SyntheticDocuments.Shape shape) {
+    int collections = collectionCounts.stream().max(Integer::compare).orElse(1);
+    log.info(
+        "Generating {} collections of {} {} documents with {} byte payloads",
+        collections,
+        documents,
+        shape,
+        dataSize);
+    Mono.from(database.drop()).block();
+    int chunks = (documents + INSERT_BATCH - 1) / INSERT_BATCH;
+    Flux.fromIterable(collectionNames(collections))
+        .flatMap(
+            name ->
+                Flux.range(0, chunks)
+                    .flatMap(
+                        chunk ->
+                            insertChunk(
+                                database.getCollection(name),
+                                Math.min(INSERT_BATCH, documents - chunk * INSERT_BATCH),
+                                dataSize,
+                                shape,
+                                new Random(Objects.hash(name, chunk))),
+                        4))
+        .blockLast();
+  }
+
+  private static Mono<?> insertChunk(
+      MongoCollection<Document> collection,
+      int count,
+      int dataSize,
+      SyntheticDocuments.Shape shape,
+      Random random) {
+    return Mono.fromCallable(() -> SyntheticDocuments.documents(count, dataSize, shape, random))
+        .subscribeOn(Schedulers.parallel())
+        .flatMap(documents -> Mono.from(collection.insertMany(documents)));
+  }
+
+  private static List<String> collectionNames(int collections) {
+    return IntStream.range(0, collections)
+        .mapToObj(i -> COLLECTION_PREFIX + i)
+        .collect(Collectors.toList());
+  }
+
+  private static List<Integer> ints(String property, String defaults) {
+    return Arrays.stream(System.getProperty(property, defaults).split(","))
+        .map(String::trim)
+        .map(Integer::valueOf)
+        .collect(Collectors.toList());
+  }
+
+  static class Result {
+    int collections;
+    int maxBatchDocuments;
+    int partitions;
+    int collectionConcurrency;
+    boolean rawBsonPassThrough;
+    long documents;
+    long bytes;
+    long batches;
+    double seconds;
+    double docsPerSecond;
+    double megabytesPerSecond;
+    double batchLatencyP50Millis;
+    double batchLatencyP99Millis;
+
+    @Override
+    public String toString() {
+      return String.format(
+          "collections=%d batch=%d partitions=%d concurrency=%d raw=%b: %.0f docs/s, %.1f MB/s,"
+              + " batch p50 %.1f ms, p99 %.1f ms",
+          collections,
+          maxBatchDocuments,
+          partitions,
+          collectionConcurrency,
+          rawBsonPassThrough,
+          docsPerSecond,
+          megabytesPerSecond,
+          batchLatencyP50Millis,
+          batchLatencyP99Millis);
+    }
+  }
+}